@@ -0,0 +1,56 @@
+package org.json;
+
+/**
+ * A minimal timing harness for the benchmarks in this directory. The tree
+ * has no build, so the benchmarks are plain main classes compiled against
+ * the sources; see the class comment of each benchmark for the command.
+ * <p>
+ * Each case is run for a number of warm-up rounds and then for a number of
+ * measured rounds of a fixed operation count. The median time per
+ * operation of the measured rounds is printed.
+ */
+abstract class Bench {
+
+    /**
+     * The number of rounds that are run but not measured.
+     */
+    static int warmup = 5;
+
+    /**
+     * The number of measured rounds.
+     */
+    static int rounds = 10;
+
+    /**
+     * Values returned by the benchmarked operations end up here, so the
+     * JIT cannot drop them.
+     */
+    static long sink;
+
+    /**
+     * Perform the benchmarked operation once.
+     * @return A value that depends on the result.
+     */
+    abstract int run() throws Exception;
+
+    /**
+     * Time an operation and print the median nanoseconds per operation.
+     * @param name The name printed for the case.
+     * @param ops  The number of operations per round.
+     * @param op   The operation.
+     */
+    static void time(String name, int ops, Bench op) throws Exception {
+        long[] t = new long[rounds];
+        for (int r = -warmup; r < rounds; r += 1) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i += 1) {
+                sink += op.run();
+            }
+            if (r >= 0) {
+                t[r] = System.nanoTime() - start;
+            }
+        }
+        java.util.Arrays.sort(t);
+        System.out.println(name + ": " + t[rounds / 2] / ops + " ns/op");
+    }
+}
@@ -0,0 +1,78 @@
+package org.json;
+
+/**
+ * Measures the heap retained per parsed JSONObject for records of a few
+ * sizes, keys and values included. The sizes straddle the point at which
+ * an object moves its members into a HashMap.
+ * <p>
+ * Run from the repository root with
+ * <pre>
+ * javac -d /tmp/bench src/org/json/*.java bench/org/json/*.java
+ * java -Xmx1g -cp /tmp/bench org.json.FootprintBenchmark [objects]</pre>
+ * The figures are rough, as they are taken from Runtime after forcing
+ * collections, but they are stable from run to run.
+ */
+public class FootprintBenchmark {
+
+    /**
+     * Return the heap in use after a few forced collections.
+     */
+    static long used() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i += 1) {
+            System.gc();
+            Thread.sleep(50);
+            used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * Make a record like the schema objects: a name, a type and then
+     * numbered fields up to the given count.
+     */
+    static String record(int i, int keys) {
+        StringBuffer sb = new StringBuffer();
+        sb.append("{\"name\":\"sensor").append(i).append('"');
+        if (keys > 1) {
+            sb.append(",\"type\":\"float\"");
+        }
+        for (int k = 2; k < keys; k += 1) {
+            sb.append(",\"f").append(k).append("\":").append(i + k);
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Parse and keep records with the given number of keys.
+     * @return The heap retained per object, in bytes.
+     */
+    static long footprint(int count, int keys) throws Exception {
+        String[] texts = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            texts[i] = record(i, keys);
+        }
+        JSONObject[] kept = new JSONObject[count];
+        long before = used();
+        for (int i = 0; i < count; i += 1) {
+            kept[i] = new JSONObject(texts[i]);
+        }
+        long after = used();
+        Bench.sink += kept[count - 1].length();
+        return (after - before) / count;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int[] sizes = {2, 3, 8, 9};
+
+// The first measurement also pays for loading and growing the heap.
+
+        footprint(count, sizes[0]);
+        for (int s = 0; s < sizes.length; s += 1) {
+            System.out.println(sizes[s] + " keys: " +
+                    footprint(count, sizes[s]) + " bytes/object");
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.json;
+
+/**
+ * Times JSONObject.quote on plain ASCII, escape-heavy and non-Latin
+ * strings of the same length.
+ * <p>
+ * Run from the repository root with
+ * <pre>
+ * javac -d /tmp/bench src/org/json/*.java bench/org/json/*.java
+ * java -cp /tmp/bench org.json.QuoteBenchmark</pre>
+ */
+public class QuoteBenchmark {
+
+    /**
+     * Repeat a string until it is the given length.
+     */
+    static String repeat(String s, int length) {
+        StringBuffer sb = new StringBuffer();
+        while (sb.length() < length) {
+            sb.append(s);
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final String[] cases = {
+            repeat("light sensor reading ", 64),
+            repeat("a\"b\\c/</d\n\t\u0001\u001f", 64),
+            repeat("\u5149\u611f\u5e94\u5668\u8bfb\u6570 ", 64)
+        };
+        String[] names = {"ascii", "escapes", "cjk"};
+        for (int c = 0; c < cases.length; c += 1) {
+            final String s = cases[c];
+            Bench.time(names[c] + ", 64 chars", 1000000, new Bench() {
+                int run() {
+                    return JSONObject.quote(s).length();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.json;
+
+/**
+ * Times JSONTokener on key-heavy documents: an array of small records with
+ * short keys and short values, with and without escapes in the strings.
+ * <p>
+ * Run from the repository root with
+ * <pre>
+ * javac -d /tmp/bench src/org/json/*.java bench/org/json/*.java
+ * java -cp /tmp/bench org.json.StringScanBenchmark [records]</pre>
+ * To compare with an older tokenizer, check out its src/org/json and run
+ * the same two commands.
+ */
+public class StringScanBenchmark {
+
+    /**
+     * Make an array of records shaped like a parsed reading batch.
+     * @param records The number of records.
+     * @param escaped Whether every value holds an escape.
+     */
+    static String document(int records, boolean escaped) {
+        StringBuffer sb = new StringBuffer();
+        sb.append('[');
+        for (int i = 0; i < records; i += 1) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"name\":\"lux").append(i % 10)
+                    .append(escaped ? "\\t\"" : "\"")
+                    .append(",\"type\":\"float\",\"unit\":\"lx\"")
+                    .append(",\"id\":\"s").append(i).append('"')
+                    .append(",\"ts\":").append(1000 + i)
+                    .append(",\"v\":").append(i % 100).append('}');
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        final String plain = document(records, false);
+        final String escaped = document(records, true);
+        Bench.time("plain keys, " + records + " records", 10, new Bench() {
+            int run() throws Exception {
+                return new JSONArray(new JSONTokener(plain)).length();
+            }
+        });
+        Bench.time("escaped values, " + records + " records", 10, new Bench() {
+            int run() throws Exception {
+                return new JSONArray(new JSONTokener(escaped)).length();
+            }
+        });
+        Bench.time("nextString, short key", 1000000, new Bench() {
+            int run() throws Exception {
+                JSONTokener x = new JSONTokener("name\":1");
+                return x.nextString('"').length();
+            }
+        });
+    }
+}
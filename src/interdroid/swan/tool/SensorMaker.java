@@ -47,6 +47,7 @@ public class SensorMaker {
 	public static final int ERR_WRITING_MANIFEST = 17;
 	public static final int ERR_WRITING_CLASS = 18;
 	public static final int ERR_WRITING_CLASS_IMPL = 19;
+	public static final int ERR_WRITING_CODEC = 20;
 
 	private static final String[] ERRORS = { null,
 			"Incorrect number of arguments.",
@@ -60,7 +61,8 @@ public class SensorMaker {
 			"Error writing arrays.", "Error writing preferences.",
 			"Error parsing schema.", "Error writing the manifest",
 			"Error writing sensor class",
-			"Error writing sensor implementation class" };
+			"Error writing sensor implementation class",
+			"Error writing codec class" };
 
 	private static final String SRC_DIR = "src";
 	private static final String XML_DIR = "res/xml";
@@ -71,6 +73,7 @@ public class SensorMaker {
 	private static final String ARRAYS_FILE = "_values.xml";
 	private static final String SENSOR_FILE_EXTENSION = "Sensor.java";
 	private static final String POLLER_FILE_EXTENSION = "Poller.java";
+	private static final String CODEC_FILE_EXTENSION = "Codec.java";
 	private static final String BACKUP_EXTENSION = ".bak";
 
 	private static final int MIN_ARGS = 1;
@@ -90,6 +93,17 @@ public class SensorMaker {
 	private static final String ITEMS = "items";
 	private static final String DEFAULT = "default";
 	private static final String CUCKOO = "cuckoo";
+	private static final String DEADBAND = "deadband";
+	private static final String RELATIVE_DEADBAND = "relativeDeadband";
+	private static final String MIN_INTERVAL = "minInterval";
+	private static final String DECIMATION = "decimation";
+	private static final String HISTORY_SIZE = "historySize";
+	private static final String AGGREGATES = "aggregates";
+	private static final String RATE = "rate";
+	private static final String SENSOR_DELAY = "sensorDelay";
+	private static final String JSON_PACKAGE = "jsonPackage";
+	private static final String[] AGGREGATE_FUNCTIONS = { "min", "max",
+			"mean", "sum", "count" };
 
 	public static void main(String[] args) {
 		if (args.length < MIN_ARGS || args.length > MAX_ARGS) {
@@ -116,6 +130,29 @@ public class SensorMaker {
 				+ string.substring(1).toLowerCase();
 	}
 
+	private static String toJavaType(String type) {
+		if (type.equals("string")) {
+			return "String";
+		}
+		return type;
+	}
+
+	private static String toDefaultValue(String type) {
+		if (type.equals("string")) {
+			return "null";
+		} else if (type.equals("boolean")) {
+			return "false";
+		}
+		return "0";
+	}
+
+	private static String toJSONGetter(String type, String object, String key) {
+		if (type.equals("float")) {
+			return "(float) " + object + ".getDouble(" + key + ")";
+		}
+		return object + ".get" + toFirstUpperCase(type) + "(" + key + ")";
+	}
+
 	private static String readFileAsString(File file)
 			throws java.io.IOException {
 		byte[] buffer = new byte[(int) file.length()];
@@ -198,6 +235,20 @@ public class SensorMaker {
 			usage(ERR_NO_NAME, e.getMessage());
 		}
 		generateSensor(schema, sensor);
+
+		// The platform org.json shadows this one, so the codec needs a
+		// repackaged copy of this library shipped with the sensor
+		if (schema.has(JSON_PACKAGE)) {
+			File codec = null;
+			try {
+				codec = new File(classDir + File.separator
+						+ toFirstUpperCase(schema.getString(NAME))
+						+ CODEC_FILE_EXTENSION);
+			} catch (JSONException e) {
+				usage(ERR_NO_NAME, e.getMessage());
+			}
+			generateCodec(schema, codec);
+		}
 		try {
 			if (schema.has(CUCKOO) && schema.getBoolean(CUCKOO)) {
 				File poller = null;
@@ -334,6 +385,18 @@ public class SensorMaker {
 			contents.append("\n");
 			contents.append("\nimport android.content.ContentValues;");
 			contents.append("\nimport android.os.Bundle;");
+			JSONObject rateConfig = findRateConfig(schema);
+			if (rateConfig != null) {
+				contents.append("\n");
+				contents.append("\nimport java.util.ArrayList;");
+				contents.append("\nimport java.util.HashMap;");
+				contents.append("\nimport java.util.List;");
+				contents.append("\nimport java.util.Map;");
+				if (rateConfig.getString(UNIT).equals(SENSOR_DELAY)) {
+					contents.append("\n");
+					contents.append("\nimport android.hardware.SensorManager;");
+				}
+			}
 			if (schema.has(CUCKOO) && schema.getBoolean(CUCKOO)) {
 				contents.append("\nimport android.app.Activity;");
 				contents.append("\nimport android.util.Log;");
@@ -343,6 +406,9 @@ public class SensorMaker {
 				contents.append("\nimport android.content.Intent;");
 				contents.append("\nimport android.content.IntentFilter;");
 				contents.append("\nimport com.google.android.gms.gcm.GoogleCloudMessaging; // link to android library: google-play-services_lib");
+				contents.append("\nimport org.json.JSONArray;");
+				contents.append("\nimport org.json.JSONException;");
+				contents.append("\nimport org.json.JSONObject;");
 			}
 			contents.append("\n");
 			contents.append("\n/**");
@@ -424,6 +490,40 @@ public class SensorMaker {
 
 			}
 
+			// Declare a bit per field for readings with missing fields
+			if (fields.length() > 63) {
+				throw new IllegalArgumentException(
+						"Too many value paths: " + fields.length());
+			}
+			contents.append("\n\t/**");
+			contents.append("\n\t* Bits marking the fields present in a reading.");
+			contents.append("\n\t*/");
+			for (int i = 0; i < fields.length(); i++) {
+				contents.append("\n\tprivate static final long ");
+				contents.append(fields.getJSONObject(i).getString(NAME)
+						.toUpperCase());
+				contents.append("_PRESENT = 1L << ");
+				contents.append(i);
+				contents.append(";");
+			}
+			contents.append("\n\tprivate static final long ALL_FIELDS_PRESENT = (1L << ");
+			contents.append(fields.length());
+			contents.append(") - 1;");
+			contents.append("\n");
+
+			if (schema.has(CUCKOO) && schema.getBoolean(CUCKOO)) {
+				contents.append("\n\t/**");
+				contents.append("\n\t* The extra holding a batch of readings in a push message.");
+				contents.append("\n\t*/");
+				contents.append("\n\tpublic static final String READINGS_EXTRA = \"readings\";");
+				contents.append("\n");
+				contents.append("\n\t/**");
+				contents.append("\n\t* The key holding the timestamp of a reading in a batch.");
+				contents.append("\n\t*/");
+				contents.append("\n\tpublic static final String TIMESTAMP_EXTRA = \"timestamp\";");
+				contents.append("\n");
+			}
+
 			contents.append("\n\t/**");
 			contents.append("\n\t* The schema for this sensor.");
 			contents.append("\n\t*/");
@@ -541,6 +641,13 @@ public class SensorMaker {
 			contents.append("\n");
 			if (schema.has(CUCKOO) && schema.getBoolean(CUCKOO)) {
 
+			} else if (rateConfig != null) {
+				contents.append("\n\t@Override");
+				contents.append("\n\tpublic void onConnected() {");
+				contents.append("\n\t\t/* Perform sensor specific sensor setup. */");
+				contents.append("\n\t}");
+				contents.append("\n");
+				generateRegistrationManager(rateConfig, contents);
 			} else {
 				contents.append("\n\t@Override");
 				contents.append("\n\tpublic void onConnected() {");
@@ -573,6 +680,18 @@ public class SensorMaker {
 			}
 			contents.append("\n");
 
+			boolean filtered = hasFilters(fields);
+			if (filtered) {
+				generateFilters(fields, contents);
+			}
+			if (schema.has(HISTORY_SIZE)) {
+				generateHistory(schema.getInt(HISTORY_SIZE), fields, contents);
+			}
+			boolean aggregated = hasAggregates(fields);
+			if (aggregated) {
+				generateAggregates(fields, contents);
+			}
+
 			// Make a convenience method to store the data
 			contents.append("\n\t/**");
 			contents.append("\n\t* Data Storage Helper Method.");
@@ -587,7 +706,7 @@ public class SensorMaker {
 			contents.append("\n\tprivate void storeReading(");
 			for (int i = 0; i < fields.length(); i++) {
 				JSONObject field = fields.getJSONObject(i);
-				contents.append(field.getString(TYPE));
+				contents.append(toJavaType(field.getString(TYPE)));
 				contents.append(" ");
 				contents.append(field.getString(NAME));
 				if (i < fields.length() - 1) {
@@ -595,21 +714,217 @@ public class SensorMaker {
 				}
 			}
 			contents.append(") {");
-			contents.append("\n\t\tlong now = System.currentTimeMillis();");
+			contents.append("\n\t\tstoreReading(ALL_FIELDS_PRESENT, ");
+			for (int i = 0; i < fields.length(); i++) {
+				contents.append(fields.getJSONObject(i).getString(NAME));
+				contents.append(", ");
+			}
+			contents.append("System.currentTimeMillis());");
+			contents.append("\n\t}");
+			contents.append("\n");
+
+			// Every reading, pushed or not, goes through this one
+			contents.append("\n\t/**");
+			contents.append("\n\t* Stores the fields present in a reading, unless the filters drop it.");
+			contents.append("\n\t* @param present the _PRESENT bits of the fields in the reading");
+			for (int i = 0; i < fields.length(); i++) {
+				JSONObject field = fields.getJSONObject(i);
+				contents.append("\n\t* @param ");
+				contents.append(field.getString(NAME));
+				contents.append(" value for ");
+				contents.append(field.getString(NAME));
+			}
+			contents.append("\n\t* @param now the time of the reading");
+			contents.append("\n\t*/");
+			contents.append("\n\tprivate void storeReading(final long present, ");
+			for (int i = 0; i < fields.length(); i++) {
+				JSONObject field = fields.getJSONObject(i);
+				contents.append("final ");
+				contents.append(toJavaType(field.getString(TYPE)));
+				contents.append(" ");
+				contents.append(field.getString(NAME));
+				contents.append(", ");
+			}
+			contents.append("final long now) {");
+			if (filtered) {
+				contents.append("\n\t\tif (!filterReading(present, ");
+				for (int i = 0; i < fields.length(); i++) {
+					contents.append(fields.getJSONObject(i).getString(NAME));
+					contents.append(", ");
+				}
+				contents.append("now)) {");
+				contents.append("\n\t\t\treturn;");
+				contents.append("\n\t\t}");
+			}
 			contents.append("\n\t\tContentValues values = new ContentValues();");
 
 			for (int i = 0; i < fields.length(); i++) {
 				JSONObject field = fields.getJSONObject(i);
-				contents.append("\n\t\tvalues.put(");
-				contents.append(field.getString(NAME).toUpperCase());
+				String constant = field.getString(NAME).toUpperCase();
+				contents.append("\n\t\tif ((present & ");
+				contents.append(constant);
+				contents.append("_PRESENT) != 0) {");
+				contents.append("\n\t\t\tvalues.put(");
+				contents.append(constant);
 				contents.append("_FIELD, ");
 				contents.append(field.getString(NAME));
 				contents.append(");");
+				contents.append("\n\t\t}");
+			}
+			if (rateConfig != null) {
+				// Store without notifying, only the due registrations are told
+				contents.append("\n\t\tputValues(getContentResolver(), uri, values, now);");
+			}
+			if (schema.has(HISTORY_SIZE)) {
+				contents.append("\n\t\trememberReading(present, ");
+				for (int i = 0; i < fields.length(); i++) {
+					contents.append(fields.getJSONObject(i).getString(NAME));
+					contents.append(", ");
+				}
+				contents.append("now);");
+			}
+			if (aggregated) {
+				contents.append("\n\t\tupdateAggregates(present, ");
+				for (int i = 0; i < fields.length(); i++) {
+					if (fields.getJSONObject(i).has(AGGREGATES)) {
+						contents.append(fields.getJSONObject(i).getString(NAME));
+						contents.append(", ");
+					}
+				}
+				contents.append("now);");
+			}
+			// Listeners are told only once the history and aggregates are up to date
+			if (rateConfig != null) {
+				contents.append("\n\t\tList<String> due = getDueRegistrations(now);");
+				contents.append("\n\t\tif (!due.isEmpty()) {");
+				contents.append("\n\t\t\tnotifyDataChangedForId(due.toArray(new String[due.size()]));");
+				contents.append("\n\t\t}");
+			} else {
+				contents.append("\n\t\tputValues(values, now);");
 			}
-			contents.append("\n\t\tputValues(values, now);");
 			contents.append("\n\t}");
 			contents.append("\n");
 
+			if (schema.has(CUCKOO) && schema.getBoolean(CUCKOO)) {
+				// Decode every field of a push message into a single reading
+				contents.append("\n\t/**");
+				contents.append("\n\t* Push Message Storage Helper Method.");
+				contents.append("\n\t* Stores all fields present in the message as one reading.");
+				contents.append("\n\t* @param extras the extras of the push message");
+				contents.append("\n\t*/");
+				contents.append("\n\tprivate void storeReading(final Bundle extras) {");
+				contents.append("\n\t\tlong present = 0;");
+				for (int i = 0; i < fields.length(); i++) {
+					JSONObject field = fields.getJSONObject(i);
+					String type = field.getString(TYPE);
+					contents.append("\n\t\t");
+					contents.append(toJavaType(type));
+					contents.append(" ");
+					contents.append(field.getString(NAME));
+					contents.append(" = ");
+					contents.append(toDefaultValue(type));
+					contents.append(";");
+				}
+				for (int i = 0; i < fields.length(); i++) {
+					JSONObject field = fields.getJSONObject(i);
+					String constant = field.getString(NAME).toUpperCase();
+					contents.append("\n\t\tif (extras.containsKey(");
+					contents.append(constant);
+					contents.append("_FIELD)) {");
+					contents.append("\n\t\t\t");
+					contents.append(field.getString(NAME));
+					contents.append(" = extras.get");
+					contents.append(toFirstUpperCase(field.getString(TYPE)));
+					contents.append("(");
+					contents.append(constant);
+					contents.append("_FIELD);");
+					contents.append("\n\t\t\tpresent |= ");
+					contents.append(constant);
+					contents.append("_PRESENT;");
+					contents.append("\n\t\t}");
+				}
+				contents.append("\n\t\tif (present != 0) {");
+				contents.append("\n\t\t\tstoreReading(present, ");
+				for (int i = 0; i < fields.length(); i++) {
+					contents.append(fields.getJSONObject(i).getString(NAME));
+					contents.append(", ");
+				}
+				contents.append("System.currentTimeMillis());");
+				contents.append("\n\t\t}");
+				contents.append("\n\t}");
+				contents.append("\n");
+
+				// Decode a packed batch of readings in one pass
+				contents.append("\n\t/**");
+				contents.append("\n\t* Batch Storage Helper Method.");
+				contents.append("\n\t* Decodes all readings packed in a push message before storing them.");
+				contents.append("\n\t* @param payload a JSON array of readings keyed by field name");
+				contents.append("\n\t* @throws JSONException if the payload is malformed");
+				contents.append("\n\t*/");
+				contents.append("\n\tprivate void storeReadings(final String payload)");
+				contents.append("\n\t\t\tthrows JSONException {");
+				contents.append("\n\t\tlong now = System.currentTimeMillis();");
+				contents.append("\n\t\tJSONArray readings = new JSONArray(payload);");
+				contents.append("\n\t\tint count = readings.length();");
+				contents.append("\n\t\tlong[] present = new long[count];");
+				contents.append("\n\t\tlong[] timestamps = new long[count];");
+				for (int i = 0; i < fields.length(); i++) {
+					JSONObject field = fields.getJSONObject(i);
+					String type = toJavaType(field.getString(TYPE));
+					contents.append("\n\t\t");
+					contents.append(type);
+					contents.append("[] ");
+					contents.append(field.getString(NAME));
+					contents.append("Batch = new ");
+					contents.append(type);
+					contents.append("[count];");
+				}
+				contents.append("\n\t\tfor (int i = 0; i < count; i++) {");
+				contents.append("\n\t\t\tJSONObject reading = readings.getJSONObject(i);");
+				for (int i = 0; i < fields.length(); i++) {
+					JSONObject field = fields.getJSONObject(i);
+					String constant = field.getString(NAME).toUpperCase();
+					contents.append("\n\t\t\tif (reading.has(");
+					contents.append(constant);
+					contents.append("_FIELD)) {");
+					contents.append("\n\t\t\t\t");
+					contents.append(field.getString(NAME));
+					contents.append("Batch[i] = ");
+					contents.append(toJSONGetter(field.getString(TYPE),
+							"reading", constant + "_FIELD"));
+					contents.append(";");
+					contents.append("\n\t\t\t\tpresent[i] |= ");
+					contents.append(constant);
+					contents.append("_PRESENT;");
+					contents.append("\n\t\t\t}");
+				}
+				contents.append("\n\t\t\ttimestamps[i] = reading.optLong(TIMESTAMP_EXTRA, now);");
+				contents.append("\n\t\t}");
+				// Store the batch in time order, as the filters expect
+				contents.append("\n\t\tint[] order = new int[count];");
+				contents.append("\n\t\tfor (int i = 0; i < count; i++) {");
+				contents.append("\n\t\t\tint j = i;");
+				contents.append("\n\t\t\twhile (j > 0 && timestamps[order[j - 1]] > timestamps[i]) {");
+				contents.append("\n\t\t\t\torder[j] = order[j - 1];");
+				contents.append("\n\t\t\t\tj--;");
+				contents.append("\n\t\t\t}");
+				contents.append("\n\t\t\torder[j] = i;");
+				contents.append("\n\t\t}");
+				contents.append("\n\t\tfor (int k = 0; k < count; k++) {");
+				contents.append("\n\t\t\tint i = order[k];");
+				contents.append("\n\t\t\tif (present[i] != 0) {");
+				contents.append("\n\t\t\t\tstoreReading(present[i], ");
+				for (int i = 0; i < fields.length(); i++) {
+					contents.append(fields.getJSONObject(i).getString(NAME));
+					contents.append("Batch[i], ");
+				}
+				contents.append("timestamps[i]);");
+				contents.append("\n\t\t\t}");
+				contents.append("\n\t\t}");
+				contents.append("\n\t}");
+				contents.append("\n");
+			}
+
 			contents.append("\n\t/**");
 			contents.append("\n\t* =-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-");
 			contents.append("\n\t* Sensor Specific Implementation");
@@ -654,18 +969,14 @@ public class SensorMaker {
 				contents.append("\n\t\t\t\t} else if (GoogleCloudMessaging.MESSAGE_TYPE_DELETED");
 				contents.append("\n\t\t\t\t\t\t.equals(messageType)) {");
 				contents.append("\n\t\t\t\t\tLog.d(TAG, \"Messages were deleted at the server.\");");
-				contents.append("\n\t\t\t\t} else {");
-				for (int i = 0; i < fields.length(); i++) {
-					JSONObject field = fields.getJSONObject(i);
-					contents.append("\n\t\t\t\t\tif (intent.hasExtra("
-							+ field.getString(NAME).toUpperCase() + "_FIELD"
-							+ ")) {");
-					contents.append("\n\t\t\t\t\t\tstoreReading(intent.getExtras().get"
-							+ toFirstUpperCase(field.getString(TYPE))
-							+ "(\""
-							+ field.getString(NAME) + "\"));");
-					contents.append("\n\t\t\t\t\t}");
-				}
+				contents.append("\n\t\t\t\t} else if (intent.hasExtra(READINGS_EXTRA)) {");
+				contents.append("\n\t\t\t\t\ttry {");
+				contents.append("\n\t\t\t\t\t\tstoreReadings(intent.getExtras().getString(READINGS_EXTRA));");
+				contents.append("\n\t\t\t\t\t} catch (JSONException e) {");
+				contents.append("\n\t\t\t\t\t\tLog.w(TAG, \"Received malformed batch of readings.\", e);");
+				contents.append("\n\t\t\t\t\t}");
+				contents.append("\n\t\t\t\t} else if (intent.getExtras() != null) {");
+				contents.append("\n\t\t\t\t\tstoreReading(intent.getExtras());");
 				contents.append("\n\t\t\t\t}");
 				contents.append("\n\t\t\t\tsetResultCode(Activity.RESULT_OK);");
 				contents.append("\n\t\t\t}");
@@ -681,6 +992,1141 @@ public class SensorMaker {
 
 	}
 
+	private static String toJSONReader(String type, String reader) {
+		if (type.equals("string")) {
+			return reader + ".nextString()";
+		}
+		if (type.equals("float")) {
+			return "(float) " + reader + ".nextDouble()";
+		}
+		return reader + ".next" + toFirstUpperCase(type) + "()";
+	}
+
+	/**
+	 * Emits a codec for the readings of a sensor. It is built against the
+	 * copy of this org.json which the sensor project ships, repackaged as
+	 * "jsonPackage", since the platform org.json shadows this one and has
+	 * neither JSONReader nor the writer primitives.
+	 */
+	private static void generateCodec(JSONObject schema, File codec) {
+		OutputStream file = makeFile(codec);
+		StringBuffer contents = new StringBuffer();
+
+		try {
+			String name = toFirstUpperCase(schema.getString(NAME));
+			JSONArray fields = schema.getJSONArray(VALUE_PATHS);
+
+			contents.append("package ");
+			contents.append(schema.getString(NAMESPACE));
+			contents.append(";");
+			contents.append("\n");
+			contents.append("\nimport java.io.IOException;");
+			contents.append("\nimport java.io.Writer;");
+			contents.append("\n");
+			String json = schema.getString(JSON_PACKAGE);
+			contents.append("\nimport " + json + ".JSONException; // link to java library: org.json, repackaged");
+			contents.append("\nimport " + json + ".JSONObject; // link to java library: org.json, repackaged");
+			contents.append("\nimport " + json + ".JSONReader; // link to java library: org.json, repackaged");
+			contents.append("\n");
+			contents.append("\n/**");
+			contents.append("\n* Reads and writes ");
+			contents.append(schema.getString(NAME));
+			contents.append(" readings as JSON objects, straight from and to the");
+			contents.append("\n* token stream, without maps, boxing or reflection.");
+			contents.append("\n*/");
+			contents.append("\npublic final class ");
+			contents.append(name);
+			contents.append("Codec {");
+			contents.append("\n");
+			contents.append("\n\t/**");
+			contents.append("\n\t* The key holding the timestamp of a reading.");
+			contents.append("\n\t*/");
+			contents.append("\n\tpublic static final String TIMESTAMP_FIELD = \"timestamp\";");
+			contents.append("\n");
+			contents.append("\n\t/**");
+			contents.append("\n\t* A single reading.");
+			contents.append("\n\t*/");
+			contents.append("\n\tpublic static final class Reading {");
+			contents.append("\n\t\tpublic long timestamp;");
+			for (int i = 0; i < fields.length(); i++) {
+				JSONObject field = fields.getJSONObject(i);
+				contents.append("\n\t\tpublic ");
+				contents.append(toJavaType(field.getString(TYPE)));
+				contents.append(" ");
+				contents.append(field.getString(NAME));
+				contents.append(";");
+			}
+			contents.append("\n\t}");
+			contents.append("\n");
+			contents.append("\n\tprivate ");
+			contents.append(name);
+			contents.append("Codec() {");
+			contents.append("\n\t}");
+			contents.append("\n");
+
+			// The writer, with every key written as a constant.
+			contents.append("\n\t/**");
+			contents.append("\n\t* Writes a reading as a JSON object.");
+			contents.append("\n\t*/");
+			contents.append("\n\tpublic static void write(final Writer writer, final long timestamp");
+			for (int i = 0; i < fields.length(); i++) {
+				JSONObject field = fields.getJSONObject(i);
+				contents.append(",\n\t\t\tfinal ");
+				contents.append(toJavaType(field.getString(TYPE)));
+				contents.append(" ");
+				contents.append(field.getString(NAME));
+			}
+			contents.append(")\n\t\t\tthrows IOException, JSONException {");
+			contents.append("\n\t\twriter.write(\"{\\\"timestamp\\\":\");");
+			contents.append("\n\t\tJSONObject.writeLong(writer, timestamp);");
+			for (int i = 0; i < fields.length(); i++) {
+				JSONObject field = fields.getJSONObject(i);
+				String fieldName = field.getString(NAME);
+				String type = field.getString(TYPE);
+				contents.append("\n\t\twriter.write(\",\\\"");
+				contents.append(fieldName);
+				contents.append("\\\":\");");
+				if (type.equals("string")) {
+					contents.append("\n\t\tif (" + fieldName + " == null) {");
+					contents.append("\n\t\t\twriter.write(\"null\");");
+					contents.append("\n\t\t} else {");
+					contents.append("\n\t\t\tJSONObject.quote(" + fieldName
+							+ ", writer);");
+					contents.append("\n\t\t}");
+				} else if (type.equals("boolean")) {
+					contents.append("\n\t\twriter.write(" + fieldName
+							+ " ? \"true\" : \"false\");");
+				} else if (type.equals("int") || type.equals("long")) {
+					contents.append("\n\t\tJSONObject.writeLong(writer, "
+							+ fieldName + ");");
+				} else if (type.equals("float")) {
+					contents.append("\n\t\tif (Float.isNaN(" + fieldName
+							+ ") || Float.isInfinite(" + fieldName + ")) {");
+					contents.append("\n\t\t\tthrow new JSONException(\"JSON does not allow non-finite numbers.\");");
+					contents.append("\n\t\t}");
+					contents.append("\n\t\twriter.write(Float.toString("
+							+ fieldName + "));");
+				} else {
+					contents.append("\n\t\tJSONObject.writeDouble(writer, "
+							+ fieldName + ");");
+				}
+			}
+			contents.append("\n\t\twriter.write('}');");
+			contents.append("\n\t}");
+			contents.append("\n");
+			contents.append("\n\t/**");
+			contents.append("\n\t* Writes a reading as a JSON object.");
+			contents.append("\n\t*/");
+			contents.append("\n\tpublic static void write(final Writer writer, final Reading reading)");
+			contents.append("\n\t\t\tthrows IOException, JSONException {");
+			contents.append("\n\t\twrite(writer, reading.timestamp");
+			for (int i = 0; i < fields.length(); i++) {
+				contents.append(", reading.");
+				contents.append(fields.getJSONObject(i).getString(NAME));
+			}
+			contents.append(");");
+			contents.append("\n\t}");
+			contents.append("\n");
+
+			// The reader, with one branch per key.
+			contents.append("\n\t/**");
+			contents.append("\n\t* Reads a JSON object into a reading, which may be reused.");
+			contents.append("\n\t* Unknown keys are skipped, missing ones leave the reading as it was.");
+			contents.append("\n\t*/");
+			contents.append("\n\tpublic static Reading read(final JSONReader reader, final Reading reading)");
+			contents.append("\n\t\t\tthrows JSONException {");
+			contents.append("\n\t\treader.beginObject();");
+			contents.append("\n\t\twhile (reader.hasNext()) {");
+			contents.append("\n\t\t\tString key = reader.nextName();");
+			contents.append("\n\t\t\tif (TIMESTAMP_FIELD.equals(key)) {");
+			contents.append("\n\t\t\t\treading.timestamp = reader.nextLong();");
+			for (int i = 0; i < fields.length(); i++) {
+				JSONObject field = fields.getJSONObject(i);
+				String fieldName = field.getString(NAME);
+				String type = field.getString(TYPE);
+				contents.append("\n\t\t\t} else if (\"");
+				contents.append(fieldName);
+				contents.append("\".equals(key)) {");
+				if (type.equals("string")) {
+					contents.append("\n\t\t\t\tif (reader.peek() == JSONReader.NULL) {");
+					contents.append("\n\t\t\t\t\treader.nextNull();");
+					contents.append("\n\t\t\t\t\treading." + fieldName
+							+ " = null;");
+					contents.append("\n\t\t\t\t} else {");
+					contents.append("\n\t\t\t\t\treading." + fieldName + " = "
+							+ toJSONReader(type, "reader") + ";");
+					contents.append("\n\t\t\t\t}");
+				} else {
+					contents.append("\n\t\t\t\treading." + fieldName + " = "
+							+ toJSONReader(type, "reader") + ";");
+				}
+			}
+			contents.append("\n\t\t\t} else {");
+			contents.append("\n\t\t\t\treader.skipValue();");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t}");
+			contents.append("\n\t\treader.endObject();");
+			contents.append("\n\t\treturn reading;");
+			contents.append("\n\t}");
+			contents.append("\n");
+			contents.append("\n\t/**");
+			contents.append("\n\t* Reads a JSON object into a new reading.");
+			contents.append("\n\t*/");
+			contents.append("\n\tpublic static Reading read(final JSONReader reader)");
+			contents.append("\n\t\t\tthrows JSONException {");
+			contents.append("\n\t\treturn read(reader, new Reading());");
+			contents.append("\n\t}");
+			contents.append("\n}");
+			contents.append("\n");
+			file.write(contents.toString().getBytes());
+		} catch (Exception e) {
+			usage(ERR_WRITING_CODEC, e.getMessage());
+		}
+	}
+
+	private static boolean hasFilters(JSONArray fields) throws JSONException {
+		for (int i = 0; i < fields.length(); i++) {
+			JSONObject field = fields.getJSONObject(i);
+			if (field.has(DEADBAND) || field.has(RELATIVE_DEADBAND)
+					|| field.has(MIN_INTERVAL) || field.has(DECIMATION)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isNumeric(String type) {
+		return type.equals("int") || type.equals("long")
+				|| type.equals("float") || type.equals("double");
+	}
+
+	/**
+	 * Emits the state and the filterReading method used by storeReading to
+	 * drop samples that do not differ enough from the last stored one. The
+	 * largest minInterval is a lower bound on the time between any two stored
+	 * readings. Past that, a reading is stored if a value path it carries
+	 * passes its deadbands and decimation, or if none of its value paths has
+	 * such a filter.
+	 */
+	private static void generateFilters(JSONArray fields, StringBuffer contents)
+			throws JSONException {
+		// Constants for the configured filters
+		long minInterval = -1;
+		for (int i = 0; i < fields.length(); i++) {
+			JSONObject field = fields.getJSONObject(i);
+			String name = field.getString(NAME);
+			if ((field.has(DEADBAND) || field.has(RELATIVE_DEADBAND))
+					&& !isNumeric(field.getString(TYPE))) {
+				throw new IllegalArgumentException(
+						"Deadband on non-numeric value path: " + name);
+			}
+			if (field.has(DEADBAND)) {
+				contents.append("\n\tprivate static final double ");
+				contents.append(name.toUpperCase());
+				contents.append("_DEADBAND = ");
+				contents.append(field.getDouble(DEADBAND));
+				contents.append(";");
+			}
+			if (field.has(RELATIVE_DEADBAND)) {
+				contents.append("\n\tprivate static final double ");
+				contents.append(name.toUpperCase());
+				contents.append("_RELATIVE_DEADBAND = ");
+				contents.append(field.getDouble(RELATIVE_DEADBAND));
+				contents.append(";");
+			}
+			if (field.has(MIN_INTERVAL)) {
+				minInterval = Math.max(minInterval, field.getLong(MIN_INTERVAL));
+			}
+			if (field.has(DECIMATION)) {
+				contents.append("\n\tprivate static final int ");
+				contents.append(name.toUpperCase());
+				contents.append("_DECIMATION = ");
+				contents.append(field.getInt(DECIMATION));
+				contents.append(";");
+			}
+		}
+		if (minInterval >= 0) {
+			contents.append("\n\tprivate static final long MIN_STORE_INTERVAL = ");
+			contents.append(minInterval);
+			contents.append("L;");
+		}
+		contents.append("\n");
+
+		// Filter state
+		contents.append("\n\t/**");
+		contents.append("\n\t* Filter state: the fields stored so far and the last stored reading.");
+		contents.append("\n\t*/");
+		contents.append("\n\tprivate long filterSeen;");
+		contents.append("\n\tprivate long lastStoredTime;");
+		for (int i = 0; i < fields.length(); i++) {
+			JSONObject field = fields.getJSONObject(i);
+			if (field.has(DEADBAND) || field.has(RELATIVE_DEADBAND)) {
+				contents.append("\n\tprivate ");
+				contents.append(toJavaType(field.getString(TYPE)));
+				contents.append(" ");
+				contents.append(field.getString(NAME));
+				contents.append("Last;");
+			}
+			if (field.has(DECIMATION)) {
+				contents.append("\n\tprivate int ");
+				contents.append(field.getString(NAME));
+				contents.append("Samples;");
+			}
+		}
+		contents.append("\n");
+		contents.append("\n\t/**");
+		contents.append("\n\t* Filter statistics.");
+		contents.append("\n\t*/");
+		contents.append("\n\tprivate long readingsOffered;");
+		contents.append("\n\tprivate long readingsDropped;");
+		contents.append("\n");
+
+		contents.append("\n\t/**");
+		contents.append("\n\t* @return the fraction of readings dropped by the filters.");
+		contents.append("\n\t*/");
+		contents.append("\n\tpublic final synchronized double getDropRatio() {");
+		contents.append("\n\t\tif (readingsOffered == 0) {");
+		contents.append("\n\t\t\treturn 0;");
+		contents.append("\n\t\t}");
+		contents.append("\n\t\treturn (double) readingsDropped / readingsOffered;");
+		contents.append("\n\t}");
+		contents.append("\n");
+
+		// The filter itself
+		contents.append("\n\t/**");
+		contents.append("\n\t* Decides if a reading differs enough from the last stored one.");
+		contents.append("\n\t* Updates the filter state and statistics. A reading older than the");
+		contents.append("\n\t* newest stored one is gated on its distance from it, and does not");
+		contents.append("\n\t* move the deadbands' reference values back in time.");
+		contents.append("\n\t* @return true if the reading should be stored");
+		contents.append("\n\t*/");
+		contents.append("\n\tprivate synchronized boolean filterReading(final long present, ");
+		for (int i = 0; i < fields.length(); i++) {
+			JSONObject field = fields.getJSONObject(i);
+			contents.append("final ");
+			contents.append(toJavaType(field.getString(TYPE)));
+			contents.append(" ");
+			contents.append(field.getString(NAME));
+			contents.append(", ");
+		}
+		contents.append("final long now) {");
+		contents.append("\n\t\treadingsOffered++;");
+		for (int i = 0; i < fields.length(); i++) {
+			JSONObject field = fields.getJSONObject(i);
+			if (field.has(DECIMATION)) {
+				String name = field.getString(NAME);
+				String constant = name.toUpperCase();
+				contents.append("\n\t\tif ((present & " + constant
+						+ "_PRESENT) != 0");
+				contents.append("\n\t\t\t\t&& " + name + "Samples < "
+						+ constant + "_DECIMATION) {");
+				contents.append("\n\t\t\t" + name + "Samples++;");
+				contents.append("\n\t\t}");
+			}
+		}
+		if (minInterval >= 0) {
+			contents.append("\n\t\tif (filterSeen != 0");
+			contents.append("\n\t\t\t\t&& Math.abs(now - lastStoredTime) < MIN_STORE_INTERVAL) {");
+			contents.append("\n\t\t\treadingsDropped++;");
+			contents.append("\n\t\t\treturn false;");
+			contents.append("\n\t\t}");
+		}
+		contents.append("\n\t\tboolean voting = false;");
+		contents.append("\n\t\tboolean store = false;");
+		for (int i = 0; i < fields.length(); i++) {
+			JSONObject field = fields.getJSONObject(i);
+			if (!field.has(DEADBAND) && !field.has(RELATIVE_DEADBAND)
+					&& !field.has(DECIMATION)) {
+				// No filter configured: no vote
+				continue;
+			}
+			String name = field.getString(NAME);
+			String constant = name.toUpperCase();
+			boolean first = true;
+			contents.append("\n\t\tif ((present & " + constant
+					+ "_PRESENT) != 0) {");
+			contents.append("\n\t\t\tvoting = true;");
+			contents.append("\n\t\t\tif ((filterSeen & " + constant
+					+ "_PRESENT) == 0");
+			contents.append("\n\t\t\t\t\t|| (");
+			if (field.has(DECIMATION)) {
+				contents.append(name + "Samples >= " + constant
+						+ "_DECIMATION");
+				first = false;
+			}
+			if (field.has(DEADBAND)) {
+				if (!first) {
+					contents.append("\n\t\t\t\t\t&& ");
+				}
+				contents.append("Math.abs(" + name + " - " + name
+						+ "Last) > " + constant + "_DEADBAND");
+				first = false;
+			}
+			if (field.has(RELATIVE_DEADBAND)) {
+				if (!first) {
+					contents.append("\n\t\t\t\t\t&& ");
+				}
+				contents.append("Math.abs(" + name + " - " + name
+						+ "Last) > " + constant
+						+ "_RELATIVE_DEADBAND * Math.abs(" + name + "Last)");
+			}
+			contents.append(")) {");
+			contents.append("\n\t\t\t\tstore = true;");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t}");
+		}
+		contents.append("\n\t\tif (voting && !store) {");
+		contents.append("\n\t\t\treadingsDropped++;");
+		contents.append("\n\t\t\treturn false;");
+		contents.append("\n\t\t}");
+		contents.append("\n\t\tboolean late = now < lastStoredTime;");
+		contents.append("\n\t\tlong unseen = present & ~filterSeen;");
+		contents.append("\n\t\tfilterSeen |= present;");
+		contents.append("\n\t\tif (!late) {");
+		contents.append("\n\t\t\tlastStoredTime = now;");
+		contents.append("\n\t\t}");
+		for (int i = 0; i < fields.length(); i++) {
+			JSONObject field = fields.getJSONObject(i);
+			boolean deadband = field.has(DEADBAND)
+					|| field.has(RELATIVE_DEADBAND);
+			if (!deadband && !field.has(DECIMATION)) {
+				continue;
+			}
+			String name = field.getString(NAME);
+			String constant = name.toUpperCase();
+			contents.append("\n\t\tif ((present & " + constant
+					+ "_PRESENT) != 0) {");
+			if (deadband) {
+				contents.append("\n\t\t\tif (!late || (unseen & " + constant
+						+ "_PRESENT) != 0) {");
+				contents.append("\n\t\t\t\t" + name + "Last = " + name + ";");
+				contents.append("\n\t\t\t}");
+			}
+			if (field.has(DECIMATION)) {
+				contents.append("\n\t\t\t" + name + "Samples = 0;");
+			}
+			contents.append("\n\t\t}");
+		}
+		contents.append("\n\t\treturn true;");
+		contents.append("\n\t}");
+		contents.append("\n");
+	}
+
+	/**
+	 * Emits a fixed capacity ring buffer of the most recently stored readings
+	 * together with accessors which serve recent history from memory.
+	 */
+	private static void generateHistory(int size, JSONArray fields,
+			StringBuffer contents) throws JSONException {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Invalid history size: " + size);
+		}
+		contents.append("\n\t/**");
+		contents.append("\n\t* The number of recent readings kept in memory.");
+		contents.append("\n\t*/");
+		contents.append("\n\tpublic static final int HISTORY_SIZE = ");
+		contents.append(size);
+		contents.append(";");
+		contents.append("\n");
+		contents.append("\n\t/**");
+		contents.append("\n\t* Ring buffer of recent readings, one slot array per value path.");
+		contents.append("\n\t*/");
+		contents.append("\n\tprivate final long[] historyTimestamps = new long[HISTORY_SIZE];");
+		for (int i = 0; i < fields.length(); i++) {
+			JSONObject field = fields.getJSONObject(i);
+			String type = toJavaType(field.getString(TYPE));
+			contents.append("\n\tprivate final ");
+			contents.append(type);
+			contents.append("[] ");
+			contents.append(field.getString(NAME));
+			contents.append("History = new ");
+			contents.append(type);
+			contents.append("[HISTORY_SIZE];");
+		}
+		contents.append("\n\tprivate int historyHead;");
+		contents.append("\n\tprivate int historyCount;");
+		contents.append("\n");
+
+		contents.append("\n\t/**");
+		contents.append("\n\t* Adds a stored reading to the ring buffer, in time order, so that");
+		contents.append("\n\t* pushed batches may arrive late. Readings older than all of the");
+		contents.append("\n\t* buffer are not kept. Fields missing from the reading keep their");
+		contents.append("\n\t* previous value.");
+		contents.append("\n\t*/");
+		contents.append("\n\tprivate synchronized void rememberReading(final long present, ");
+		for (int i = 0; i < fields.length(); i++) {
+			JSONObject field = fields.getJSONObject(i);
+			contents.append("final ");
+			contents.append(toJavaType(field.getString(TYPE)));
+			contents.append(" ");
+			contents.append(field.getString(NAME));
+			contents.append(", ");
+		}
+		contents.append("final long now) {");
+		contents.append("\n\t\tif (historyCount == HISTORY_SIZE && now < historyTimestamps[historyHead]) {");
+		contents.append("\n\t\t\treturn;");
+		contents.append("\n\t\t}");
+		contents.append("\n\t\tint newer = 0;");
+		contents.append("\n\t\twhile (newer < historyCount && historyTimestamps[");
+		contents.append("\n\t\t\t\t(historyHead + HISTORY_SIZE - 1 - newer) % HISTORY_SIZE] > now) {");
+		contents.append("\n\t\t\tnewer++;");
+		contents.append("\n\t\t}");
+		contents.append("\n\t\tint slot = (historyHead + HISTORY_SIZE - newer) % HISTORY_SIZE;");
+		contents.append("\n\t\tint previous = (slot + HISTORY_SIZE - 1) % HISTORY_SIZE;");
+		contents.append("\n\t\tboolean carry = newer < historyCount;");
+		for (int i = 0; i < fields.length(); i++) {
+			JSONObject field = fields.getJSONObject(i);
+			String name = field.getString(NAME);
+			contents.append("\n\t\t" + toJavaType(field.getString(TYPE)) + " "
+					+ name + "Value = carry && (present & "
+					+ name.toUpperCase() + "_PRESENT) == 0");
+			contents.append("\n\t\t\t\t? " + name + "History[previous] : "
+					+ name + ";");
+		}
+		contents.append("\n\t\tfor (int i = 0; i < newer; i++) {");
+		contents.append("\n\t\t\tint to = (historyHead + HISTORY_SIZE - i) % HISTORY_SIZE;");
+		contents.append("\n\t\t\tint from = (to + HISTORY_SIZE - 1) % HISTORY_SIZE;");
+		contents.append("\n\t\t\thistoryTimestamps[to] = historyTimestamps[from];");
+		for (int i = 0; i < fields.length(); i++) {
+			String name = fields.getJSONObject(i).getString(NAME);
+			contents.append("\n\t\t\t" + name + "History[to] = " + name
+					+ "History[from];");
+		}
+		contents.append("\n\t\t}");
+		contents.append("\n\t\thistoryTimestamps[slot] = now;");
+		for (int i = 0; i < fields.length(); i++) {
+			String name = fields.getJSONObject(i).getString(NAME);
+			contents.append("\n\t\t" + name + "History[slot] = " + name
+					+ "Value;");
+		}
+		contents.append("\n\t\thistoryHead = (historyHead + 1) % HISTORY_SIZE;");
+		contents.append("\n\t\tif (historyCount < HISTORY_SIZE) {");
+		contents.append("\n\t\t\thistoryCount++;");
+		contents.append("\n\t\t}");
+		contents.append("\n\t}");
+		contents.append("\n");
+
+		contents.append("\n\t/**");
+		contents.append("\n\t* @return the time of the latest reading in memory, or 0 if there is none.");
+		contents.append("\n\t*/");
+		contents.append("\n\tpublic final synchronized long getLatestTimestamp() {");
+		contents.append("\n\t\tif (historyCount == 0) {");
+		contents.append("\n\t\t\treturn 0;");
+		contents.append("\n\t\t}");
+		contents.append("\n\t\treturn historyTimestamps[(historyHead + HISTORY_SIZE - 1) % HISTORY_SIZE];");
+		contents.append("\n\t}");
+		contents.append("\n");
+
+		contents.append("\n\t/**");
+		contents.append("\n\t* @param since the start of the requested history");
+		contents.append("\n\t* @return true if memory holds every reading since the given time,");
+		contents.append("\n\t* false if older readings must be read from the provider.");
+		contents.append("\n\t*/");
+		contents.append("\n\tpublic final synchronized boolean hasHistorySince(final long since) {");
+		contents.append("\n\t\tif (historyCount == 0) {");
+		contents.append("\n\t\t\treturn false;");
+		contents.append("\n\t\t}");
+		contents.append("\n\t\treturn historyTimestamps[(historyHead + HISTORY_SIZE - historyCount) % HISTORY_SIZE] <= since;");
+		contents.append("\n\t}");
+		contents.append("\n");
+
+		for (int i = 0; i < fields.length(); i++) {
+			JSONObject field = fields.getJSONObject(i);
+			String name = field.getString(NAME);
+			String type = toJavaType(field.getString(TYPE));
+			String method = toFirstUpperCase(name);
+
+			contents.append("\n\t/**");
+			contents.append("\n\t* @return the latest " + name
+					+ " reading in memory, check getLatestTimestamp() first.");
+			contents.append("\n\t*/");
+			contents.append("\n\tpublic final synchronized " + type + " getLatest"
+					+ method + "() {");
+			contents.append("\n\t\treturn " + name
+					+ "History[(historyHead + HISTORY_SIZE - 1) % HISTORY_SIZE];");
+			contents.append("\n\t}");
+			contents.append("\n");
+
+			contents.append("\n\t/**");
+			contents.append("\n\t* Copies the recent " + name
+					+ " readings in memory, newest first.");
+			contents.append("\n\t* @param since the oldest time to copy");
+			contents.append("\n\t* @param timestamps receives the reading times");
+			contents.append("\n\t* @param values receives the readings");
+			contents.append("\n\t* @return the number of readings copied");
+			contents.append("\n\t*/");
+			contents.append("\n\tpublic final synchronized int getRecent" + method
+					+ "(final long since,");
+			contents.append("\n\t\t\tfinal long[] timestamps, final " + type
+					+ "[] values) {");
+			contents.append("\n\t\tint max = Math.min(historyCount, Math.min(timestamps.length, values.length));");
+			contents.append("\n\t\tint copied = 0;");
+			contents.append("\n\t\tint slot = historyHead;");
+			contents.append("\n\t\twhile (copied < max) {");
+			contents.append("\n\t\t\tslot = (slot + HISTORY_SIZE - 1) % HISTORY_SIZE;");
+			contents.append("\n\t\t\tif (historyTimestamps[slot] < since) {");
+			contents.append("\n\t\t\t\tbreak;");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t\ttimestamps[copied] = historyTimestamps[slot];");
+			contents.append("\n\t\t\tvalues[copied] = " + name + "History[slot];");
+			contents.append("\n\t\t\tcopied++;");
+			contents.append("\n\t\t}");
+			contents.append("\n\t\treturn copied;");
+			contents.append("\n\t}");
+			contents.append("\n");
+		}
+	}
+
+	private static boolean hasAggregates(JSONArray fields)
+			throws JSONException {
+		for (int i = 0; i < fields.length(); i++) {
+			if (fields.getJSONObject(i).has(AGGREGATES)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static long parseWindow(String window) {
+		int unit = 0;
+		while (unit < window.length()
+				&& Character.isDigit(window.charAt(unit))) {
+			unit++;
+		}
+		if (unit == 0) {
+			throw new IllegalArgumentException("Invalid aggregate window: "
+					+ window);
+		}
+		long length = Long.parseLong(window.substring(0, unit));
+		String suffix = window.substring(unit);
+		if (suffix.equals("ms")) {
+			return length;
+		} else if (suffix.equals("s")) {
+			return length * 1000;
+		} else if (suffix.equals("m")) {
+			return length * 60 * 1000;
+		} else if (suffix.equals("h")) {
+			return length * 60 * 60 * 1000;
+		}
+		throw new IllegalArgumentException("Invalid aggregate window: "
+				+ window);
+	}
+
+	/**
+	 * Emits sliding window aggregates, declared per value path as
+	 * "function:window" (for example "mean:60s"), which storeReading keeps
+	 * up to date so that the current values never require a scan.
+	 */
+	private static void generateAggregates(JSONArray fields,
+			StringBuffer contents) throws JSONException {
+		// The windows which are asked for decide which classes are needed
+		boolean extremes = false;
+		boolean sums = false;
+		for (int i = 0; i < fields.length(); i++) {
+			JSONArray aggregates = fields.getJSONObject(i).optJSONArray(
+					AGGREGATES);
+			for (int j = 0; aggregates != null && j < aggregates.length(); j++) {
+				String spec = aggregates.getString(j);
+				if (spec.startsWith("min:") || spec.startsWith("max:")) {
+					extremes = true;
+				} else {
+					sums = true;
+				}
+			}
+		}
+		if (extremes) {
+			contents.append("\n\t/**");
+			contents.append("\n\t* The min or max over a sliding time window, kept in a monotonic deque");
+			contents.append("\n\t* in amortized constant time. Samples are kept in time order, so pushed");
+			contents.append("\n\t* batches may arrive late; a sample which is already outside the window");
+			contents.append("\n\t* is ignored.");
+			contents.append("\n\t*/");
+			contents.append("\n\tprivate static final class WindowExtreme {");
+			contents.append("\n\t\tprivate static final int MIN = 0;");
+			contents.append("\n\t\tprivate static final int MAX = 1;");
+			contents.append("\n");
+			contents.append("\n\t\tprivate final int function;");
+			contents.append("\n\t\tprivate final long window;");
+			contents.append("\n\t\tprivate long[] times = new long[16];");
+			contents.append("\n\t\tprivate double[] values = new double[16];");
+			contents.append("\n\t\tprivate int head;");
+			contents.append("\n\t\tprivate int size;");
+			contents.append("\n\t\tprivate long latest;");
+			contents.append("\n");
+			contents.append("\n\t\tWindowExtreme(final int function, final long window) {");
+			contents.append("\n\t\t\tthis.function = function;");
+			contents.append("\n\t\t\tthis.window = window;");
+			contents.append("\n\t\t}");
+			contents.append("\n");
+			contents.append("\n\t\tvoid add(final long time, final double value) {");
+			contents.append("\n\t\t\tadvance(time);");
+			contents.append("\n\t\t\tif (time <= latest - window) {");
+			contents.append("\n\t\t\t\treturn;");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t\tint pos = size;");
+			contents.append("\n\t\t\twhile (pos > 0 && times[(head + pos - 1) & (times.length - 1)] > time) {");
+			contents.append("\n\t\t\t\tpos--;");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t\tif (pos < size && dominates(values[(head + pos) & (values.length - 1)], value)) {");
+			contents.append("\n\t\t\t\treturn;");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t\tint drop = 0;");
+			contents.append("\n\t\t\twhile (drop < pos && dominates(value,");
+			contents.append("\n\t\t\t\t\tvalues[(head + pos - drop - 1) & (values.length - 1)])) {");
+			contents.append("\n\t\t\t\tdrop++;");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t\tif (drop == 0 && size == values.length) {");
+			contents.append("\n\t\t\t\tgrow();");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t\tint mask = values.length - 1;");
+			contents.append("\n\t\t\tif (drop == 0) {");
+			contents.append("\n\t\t\t\tfor (int i = size; i > pos; i--) {");
+			contents.append("\n\t\t\t\t\ttimes[(head + i) & mask] = times[(head + i - 1) & mask];");
+			contents.append("\n\t\t\t\t\tvalues[(head + i) & mask] = values[(head + i - 1) & mask];");
+			contents.append("\n\t\t\t\t}");
+			contents.append("\n\t\t\t} else {");
+			contents.append("\n\t\t\t\tfor (int i = pos; i < size; i++) {");
+			contents.append("\n\t\t\t\t\ttimes[(head + i - drop + 1) & mask] = times[(head + i) & mask];");
+			contents.append("\n\t\t\t\t\tvalues[(head + i - drop + 1) & mask] = values[(head + i) & mask];");
+			contents.append("\n\t\t\t\t}");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t\tint slot = (head + pos - drop) & mask;");
+			contents.append("\n\t\t\ttimes[slot] = time;");
+			contents.append("\n\t\t\tvalues[slot] = value;");
+			contents.append("\n\t\t\tsize += 1 - drop;");
+			contents.append("\n\t\t}");
+			contents.append("\n");
+			contents.append("\n\t\tdouble get(final long now) {");
+			contents.append("\n\t\t\tadvance(now);");
+			contents.append("\n\t\t\treturn size == 0 ? Double.NaN : values[head];");
+			contents.append("\n\t\t}");
+			contents.append("\n");
+			contents.append("\n\t\tprivate boolean dominates(final double value, final double other) {");
+			contents.append("\n\t\t\treturn function == MAX ? value >= other : value <= other;");
+			contents.append("\n\t\t}");
+			contents.append("\n");
+			contents.append("\n\t\tprivate void advance(final long now) {");
+			contents.append("\n\t\t\tif (now > latest) {");
+			contents.append("\n\t\t\t\tlatest = now;");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t\twhile (size > 0 && times[head] <= latest - window) {");
+			contents.append("\n\t\t\t\thead = (head + 1) & (values.length - 1);");
+			contents.append("\n\t\t\t\tsize--;");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t}");
+			contents.append("\n");
+			contents.append("\n\t\tprivate void grow() {");
+			contents.append("\n\t\t\tlong[] newTimes = new long[times.length * 2];");
+			contents.append("\n\t\t\tdouble[] newValues = new double[values.length * 2];");
+			contents.append("\n\t\t\tfor (int i = 0; i < size; i++) {");
+			contents.append("\n\t\t\t\tnewTimes[i] = times[(head + i) & (times.length - 1)];");
+			contents.append("\n\t\t\t\tnewValues[i] = values[(head + i) & (values.length - 1)];");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t\ttimes = newTimes;");
+			contents.append("\n\t\t\tvalues = newValues;");
+			contents.append("\n\t\t\thead = 0;");
+			contents.append("\n\t\t}");
+			contents.append("\n\t}");
+			contents.append("\n");
+		}
+		if (sums) {
+			contents.append("\n\t/**");
+			contents.append("\n\t* The sum and count over a sliding time window, in constant space. The");
+			contents.append("\n\t* window is split into at most MAX_BUCKETS fixed sub-windows, each with");
+			contents.append("\n\t* the sum and count of its samples, and samples expire a sub-window at");
+			contents.append("\n\t* a time. The window therefore covers the current sub-window and those");
+			contents.append("\n\t* before it, up to one sub-window more or less than its length. A sample");
+			contents.append("\n\t* in a sub-window which has already expired is ignored.");
+			contents.append("\n\t*/");
+			contents.append("\n\tprivate static final class WindowSum {");
+			contents.append("\n\t\tprivate static final int MAX_BUCKETS = 60;");
+			contents.append("\n");
+			contents.append("\n\t\tprivate final long width;");
+			contents.append("\n\t\tprivate final long[] buckets;");
+			contents.append("\n\t\tprivate final double[] sums;");
+			contents.append("\n\t\tprivate final long[] counts;");
+			contents.append("\n\t\tprivate long latest;");
+			contents.append("\n");
+			contents.append("\n\t\tWindowSum(final long window) {");
+			contents.append("\n\t\t\tint n = (int) Math.min(MAX_BUCKETS, window);");
+			contents.append("\n\t\t\twidth = (window + n - 1) / n;");
+			contents.append("\n\t\t\tbuckets = new long[n];");
+			contents.append("\n\t\t\tsums = new double[n];");
+			contents.append("\n\t\t\tcounts = new long[n];");
+			contents.append("\n\t\t}");
+			contents.append("\n");
+			contents.append("\n\t\tvoid add(final long time, final double value) {");
+			contents.append("\n\t\t\tif (time > latest) {");
+			contents.append("\n\t\t\t\tlatest = time;");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t\tlong bucket = time / width;");
+			contents.append("\n\t\t\tif (bucket <= latest / width - buckets.length) {");
+			contents.append("\n\t\t\t\treturn;");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t\tint slot = (int) (bucket % buckets.length);");
+			contents.append("\n\t\t\tif (buckets[slot] != bucket) {");
+			contents.append("\n\t\t\t\tbuckets[slot] = bucket;");
+			contents.append("\n\t\t\t\tsums[slot] = 0;");
+			contents.append("\n\t\t\t\tcounts[slot] = 0;");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t\tsums[slot] += value;");
+			contents.append("\n\t\t\tcounts[slot]++;");
+			contents.append("\n\t\t}");
+			contents.append("\n");
+			contents.append("\n\t\tdouble sum(final long now) {");
+			contents.append("\n\t\t\tlong oldest = advance(now);");
+			contents.append("\n\t\t\tdouble sum = 0;");
+			contents.append("\n\t\t\tfor (int i = 0; i < buckets.length; i++) {");
+			contents.append("\n\t\t\t\tif (buckets[i] > oldest) {");
+			contents.append("\n\t\t\t\t\tsum += sums[i];");
+			contents.append("\n\t\t\t\t}");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t\treturn sum;");
+			contents.append("\n\t\t}");
+			contents.append("\n");
+			contents.append("\n\t\tlong count(final long now) {");
+			contents.append("\n\t\t\tlong oldest = advance(now);");
+			contents.append("\n\t\t\tlong count = 0;");
+			contents.append("\n\t\t\tfor (int i = 0; i < buckets.length; i++) {");
+			contents.append("\n\t\t\t\tif (buckets[i] > oldest) {");
+			contents.append("\n\t\t\t\t\tcount += counts[i];");
+			contents.append("\n\t\t\t\t}");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t\treturn count;");
+			contents.append("\n\t\t}");
+			contents.append("\n");
+			contents.append("\n\t\tdouble mean(final long now) {");
+			contents.append("\n\t\t\tlong count = count(now);");
+			contents.append("\n\t\t\treturn count == 0 ? Double.NaN : sum(now) / count;");
+			contents.append("\n\t\t}");
+			contents.append("\n");
+			contents.append("\n\t\t/**");
+			contents.append("\n\t\t* @return the last sub-window which has expired at the given time.");
+			contents.append("\n\t\t*/");
+			contents.append("\n\t\tprivate long advance(final long now) {");
+			contents.append("\n\t\t\tif (now > latest) {");
+			contents.append("\n\t\t\t\tlatest = now;");
+			contents.append("\n\t\t\t}");
+			contents.append("\n\t\t\treturn latest / width - buckets.length;");
+			contents.append("\n\t\t}");
+			contents.append("\n\t}");
+			contents.append("\n");
+		}
+
+		StringBuffer updates = new StringBuffer();
+		for (int i = 0; i < fields.length(); i++) {
+			JSONObject field = fields.getJSONObject(i);
+			if (!field.has(AGGREGATES)) {
+				continue;
+			}
+			String name = field.getString(NAME);
+			int start = updates.length();
+			if (!isNumeric(field.getString(TYPE))) {
+				throw new IllegalArgumentException(
+						"Aggregates on non-numeric value path: " + name);
+			}
+			JSONArray aggregates = field.getJSONArray(AGGREGATES);
+			for (int j = 0; j < aggregates.length(); j++) {
+				String spec = aggregates.getString(j);
+				int colon = spec.indexOf(':');
+				if (colon < 0) {
+					throw new IllegalArgumentException("Invalid aggregate: "
+							+ spec);
+				}
+				String function = spec.substring(0, colon);
+				String window = spec.substring(colon + 1);
+				boolean known = false;
+				for (String candidate : AGGREGATE_FUNCTIONS) {
+					known |= candidate.equals(function);
+				}
+				if (!known) {
+					throw new IllegalArgumentException(
+							"Unsupported aggregate function: " + function);
+				}
+				String aggregate = name + toFirstUpperCase(function) + window;
+
+				contents.append("\n\t/**");
+				contents.append("\n\t* The " + function + " of " + name
+						+ " over the last " + window + ".");
+				contents.append("\n\t*/");
+				boolean extreme = function.equals("min")
+						|| function.equals("max");
+				if (extreme) {
+					contents.append("\n\tprivate final WindowExtreme " + aggregate
+							+ " =");
+					contents.append("\n\t\t\tnew WindowExtreme(WindowExtreme."
+							+ function.toUpperCase() + ", " + parseWindow(window)
+							+ "L);");
+				} else {
+					contents.append("\n\tprivate final WindowSum " + aggregate
+							+ " = new WindowSum(" + parseWindow(window) + "L);");
+				}
+				contents.append("\n");
+				contents.append("\n\t/**");
+				boolean additive = function.equals("sum")
+						|| function.equals("count");
+				contents.append("\n\t* @return the " + function + " of " + name
+						+ " over the last " + window + ", "
+						+ (additive ? "0" : "NaN")
+						+ " if there are no readings.");
+				contents.append("\n\t*/");
+				contents.append("\n\tpublic final synchronized "
+						+ (function.equals("count") ? "long" : "double") + " get"
+						+ toFirstUpperCase(name) + toFirstUpperCase(function)
+						+ window + "() {");
+				contents.append("\n\t\treturn " + aggregate + "."
+						+ (extreme ? "get" : function)
+						+ "(System.currentTimeMillis());");
+				contents.append("\n\t}");
+				contents.append("\n");
+
+				updates.append("\n\t\t\t" + aggregate + ".add(now, " + name
+						+ ");");
+			}
+			updates.insert(start, "\n\t\tif ((present & " + name.toUpperCase()
+					+ "_PRESENT) != 0) {");
+			updates.append("\n\t\t}");
+		}
+
+		contents.append("\n\t/**");
+		contents.append("\n\t* Adds the fields present in a stored reading to the window aggregates.");
+		contents.append("\n\t*/");
+		contents.append("\n\tprivate synchronized void updateAggregates(final long present, ");
+		for (int i = 0; i < fields.length(); i++) {
+			JSONObject field = fields.getJSONObject(i);
+			if (field.has(AGGREGATES)) {
+				contents.append("final ");
+				contents.append(toJavaType(field.getString(TYPE)));
+				contents.append(" ");
+				contents.append(field.getString(NAME));
+				contents.append(", ");
+			}
+		}
+		contents.append("final long now) {");
+		contents.append(updates);
+		contents.append("\n\t}");
+		contents.append("\n");
+	}
+
+	private static JSONObject findRateConfig(JSONObject schema)
+			throws JSONException {
+		if ((schema.has(CUCKOO) && schema.getBoolean(CUCKOO))
+				|| !schema.has(CONFIGS)) {
+			return null;
+		}
+		JSONObject rateConfig = null;
+		JSONArray configs = schema.getJSONArray(CONFIGS);
+		for (int i = 0; i < configs.length(); i++) {
+			JSONObject config = configs.getJSONObject(i);
+			if (!config.has(RATE)) {
+				continue;
+			}
+			if (rateConfig != null) {
+				throw new IllegalArgumentException(
+						"Only one configuration may declare a rate.");
+			}
+			String merge = config.getString(RATE);
+			if (!merge.equals("min") && !merge.equals("max")) {
+				throw new IllegalArgumentException("Unsupported rate: "
+						+ merge);
+			}
+			if (!isNumeric(config.getString(TYPE))) {
+				throw new IllegalArgumentException(
+						"Rate on non-numeric configuration: "
+								+ config.getString(NAME));
+			}
+			String unit = config.optString(UNIT, "");
+			if (merge.equals("max")) {
+				// A larger rate is faster, so it has to be a frequency
+				if (!unit.equals("Hz")) {
+					throw new IllegalArgumentException(
+							"Rate configuration \"max\" needs a unit of Hz: "
+									+ config.getString(NAME));
+				}
+			} else if (!unit.equals("ms") && !unit.equals("s")
+					&& !(unit.equals(SENSOR_DELAY)
+							&& config.getString(TYPE).equals("int"))) {
+				throw new IllegalArgumentException(
+						"Rate configuration \"min\" needs a unit of ms, s or an int "
+								+ SENSOR_DELAY + ": " + config.getString(NAME));
+			}
+			rateConfig = config;
+		}
+		return rateConfig;
+	}
+
+	private static String toBoxedType(String type) {
+		if (type.equals("int")) {
+			return "Integer";
+		}
+		return toFirstUpperCase(type);
+	}
+
+	/**
+	 * Emits register and unregister methods which merge the rate requested
+	 * by all registrations into one listener subscription at the fastest
+	 * rate, and track when each registration is due for its next reading.
+	 * The rate configuration declares "rate": "min" when smaller values are
+	 * faster (delays, intervals), with a "unit" of "ms", "s" or "sensorDelay"
+	 * (a SensorManager delay), or "max" when larger values are faster, with a
+	 * "unit" of "Hz". From these storeReading works out the registrations due
+	 * for a reading.
+	 */
+	private static void generateRegistrationManager(JSONObject rateConfig,
+			StringBuffer contents) throws JSONException {
+		String name = rateConfig.getString(NAME);
+		String constant = name.toUpperCase() + "_CONFIG";
+		String method = toFirstUpperCase(name);
+		String type = rateConfig.getString(TYPE);
+		String boxed = toBoxedType(type);
+		String merge = rateConfig.getString(RATE);
+
+		contents.append("\n\t/**");
+		contents.append("\n\t* The " + name + " requested by each registration.");
+		contents.append("\n\t*/");
+		contents.append("\n\tprivate final Map<String, " + boxed + "> requested"
+				+ method + " =");
+		contents.append("\n\t\t\tnew HashMap<String, " + boxed + ">();");
+		contents.append("\n");
+		contents.append("\n\t/**");
+		contents.append("\n\t* The delivery period and last delivery time of each registration.");
+		contents.append("\n\t*/");
+		contents.append("\n\tprivate final Map<String, long[]> deliveries =");
+		contents.append("\n\t\t\tnew HashMap<String, long[]>();");
+		contents.append("\n");
+		contents.append("\n\t/**");
+		contents.append("\n\t* The " + name + " of the current listener subscription.");
+		contents.append("\n\t*/");
+		contents.append("\n\tprivate " + type + " active" + method + ";");
+		contents.append("\n");
+		contents.append("\n\t/**");
+		contents.append("\n\t* True while the listener is registered.");
+		contents.append("\n\t*/");
+		contents.append("\n\tprivate boolean subscribed;");
+		contents.append("\n");
+
+		contents.append("\n\t@Override");
+		contents.append("\n\tpublic final void register(final String id, final String valuePath,");
+		contents.append("\n\t\tfinal Bundle configuration) {");
+		contents.append("\n\t\tsynchronized (this) {");
+		contents.append("\n\t\t\t" + type + " " + name + " = " + rateConfig.optString(DEFAULT, "0") + ";");
+		contents.append("\n\t\t\tif (configuration != null && configuration.containsKey("
+				+ constant + ")) {");
+		contents.append("\n\t\t\t\t" + name + " = configuration.get"
+				+ toFirstUpperCase(type) + "(" + constant + ");");
+		contents.append("\n\t\t\t}");
+		contents.append("\n\t\t\trequested" + method + ".put(id, " + name + ");");
+		contents.append("\n\t\t\tdeliveries.put(id, new long[] { toPeriod(" + name
+				+ "), 0 });");
+		contents.append("\n\t\t}");
+		contents.append("\n\t\treplanSubscription();");
+		contents.append("\n\t}");
+		contents.append("\n");
+		contents.append("\n\t@Override");
+		contents.append("\n\tpublic final void unregister(final String id) {");
+		contents.append("\n\t\tsynchronized (this) {");
+		contents.append("\n\t\t\trequested" + method + ".remove(id);");
+		contents.append("\n\t\t\tdeliveries.remove(id);");
+		contents.append("\n\t\t}");
+		contents.append("\n\t\treplanSubscription();");
+		contents.append("\n\t}");
+		contents.append("\n");
+		contents.append("\n\t@Override");
+		contents.append("\n\tpublic final synchronized void onDestroySensor() {");
+		contents.append("\n\t\tif (subscribed) {");
+		contents.append("\n\t\t\tsubscribed = false;");
+		contents.append("\n\t\t\t/* Perform sensor specific listener un-registration. */");
+		contents.append("\n\t\t}");
+		contents.append("\n\t\t/* Perform sensor specific shutdown. */");
+		contents.append("\n\t}");
+		contents.append("\n");
+
+		contents.append("\n\t/**");
+		contents.append("\n\t* Merges the " + name
+				+ " of all registrations into a single listener");
+		contents.append("\n\t* subscription at the fastest requested rate.");
+		contents.append("\n\t* The listener is only restarted when that rate changes.");
+		contents.append("\n\t*/");
+		contents.append("\n\tprivate synchronized void replanSubscription() {");
+		contents.append("\n\t\tif (requested" + method + ".isEmpty()) {");
+		contents.append("\n\t\t\tif (subscribed) {");
+		contents.append("\n\t\t\t\tsubscribed = false;");
+		contents.append("\n\t\t\t\t/* Perform sensor specific listener un-registration. */");
+		contents.append("\n\t\t\t}");
+		contents.append("\n\t\t\treturn;");
+		contents.append("\n\t\t}");
+		contents.append("\n\t\tboolean first = true;");
+		contents.append("\n\t\t" + type + " fastest = 0;");
+		contents.append("\n\t\tfor (" + boxed + " requested : requested" + method
+				+ ".values()) {");
+		contents.append("\n\t\t\tif (first || requested "
+				+ (merge.equals("min") ? "<" : ">") + " fastest) {");
+		contents.append("\n\t\t\t\tfastest = requested;");
+		contents.append("\n\t\t\t\tfirst = false;");
+		contents.append("\n\t\t\t}");
+		contents.append("\n\t\t}");
+		contents.append("\n\t\tif (subscribed && fastest == active" + method + ") {");
+		contents.append("\n\t\t\treturn;");
+		contents.append("\n\t\t}");
+		contents.append("\n\t\tif (subscribed) {");
+		contents.append("\n\t\t\t/* Perform sensor specific listener un-registration. */");
+		contents.append("\n\t\t}");
+		contents.append("\n\t\tactive" + method + " = fastest;");
+		contents.append("\n\t\tsubscribed = true;");
+		contents.append("\n\t\t/* Perform sensor specific listener registration using active"
+				+ method + ". */");
+		contents.append("\n\t}");
+		contents.append("\n");
+
+		contents.append("\n\t/**");
+		contents.append("\n\t* @param " + name + " a requested " + name);
+		contents.append("\n\t* @return the minimum time between readings delivered at that rate.");
+		contents.append("\n\t*/");
+		contents.append("\n\tprivate long toPeriod(final " + type + " " + name + ") {");
+		String unit = rateConfig.getString(UNIT);
+		if (unit.equals("Hz")) {
+			contents.append("\n\t\treturn " + name + " > 0 ? (long) (1000.0 / " + name
+					+ ") : Long.MAX_VALUE;");
+		} else if (unit.equals("ms")) {
+			contents.append("\n\t\treturn (long) " + name + ";");
+		} else if (unit.equals("s")) {
+			contents.append("\n\t\treturn (long) (" + name + " * 1000);");
+		} else {
+			// The nominal delays of SensorManager, or a delay in microseconds
+			contents.append("\n\t\tswitch (" + name + ") {");
+			contents.append("\n\t\tcase SensorManager.SENSOR_DELAY_FASTEST:");
+			contents.append("\n\t\t\treturn 0;");
+			contents.append("\n\t\tcase SensorManager.SENSOR_DELAY_GAME:");
+			contents.append("\n\t\t\treturn 20;");
+			contents.append("\n\t\tcase SensorManager.SENSOR_DELAY_UI:");
+			contents.append("\n\t\t\treturn 66;");
+			contents.append("\n\t\tcase SensorManager.SENSOR_DELAY_NORMAL:");
+			contents.append("\n\t\t\treturn 200;");
+			contents.append("\n\t\tdefault:");
+			contents.append("\n\t\t\treturn " + name + " / 1000;");
+			contents.append("\n\t\t}");
+		}
+		contents.append("\n\t}");
+		contents.append("\n");
+
+		contents.append("\n\t/**");
+		contents.append("\n\t* Downsamples the shared subscription for each registration.");
+		contents.append("\n\t* @param now the time of the current reading");
+		contents.append("\n\t* @return the registrations due for a reading at this time");
+		contents.append("\n\t*/");
+		contents.append("\n\tprotected final synchronized List<String> getDueRegistrations(final long now) {");
+		contents.append("\n\t\tList<String> due = new ArrayList<String>(deliveries.size());");
+		contents.append("\n\t\tfor (Map.Entry<String, long[]> delivery : deliveries.entrySet()) {");
+		contents.append("\n\t\t\tlong[] state = delivery.getValue();");
+		contents.append("\n\t\t\tif (now - state[1] >= state[0]) {");
+		contents.append("\n\t\t\t\tstate[1] = now;");
+		contents.append("\n\t\t\t\tdue.add(delivery.getKey());");
+		contents.append("\n\t\t\t}");
+		contents.append("\n\t\t}");
+		contents.append("\n\t\treturn due;");
+		contents.append("\n\t}");
+	}
+
 	private static void generatePrefs(JSONObject schema, File prefs) {
 		OutputStream file = makeFile(prefs);
 		StringBuffer content = new StringBuffer();
@@ -1035,7 +2481,7 @@ public class SensorMaker {
 	private static void backup(File file) {
 		String newName = file.getName() + "." + System.currentTimeMillis()
 				+ BACKUP_EXTENSION;
-		File newFile = new File(newName);
+		File newFile = new File(file.getParentFile(), newName);
 
 		try {
 			InputStream in = new FileInputStream(file);
@@ -1051,7 +2497,7 @@ public class SensorMaker {
 		} catch (Exception e) {
 			usage(UNABLE_TO_BACKUP, file.getName());
 		}
-		System.err.println("Backed up existing: " + file + " to " + newName);
+		System.err.println("Backed up existing: " + file + " to " + newFile);
 	}
 
 	private static void mkdir(File dir) {
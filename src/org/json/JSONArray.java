@@ -74,6 +74,11 @@ import java.util.Map;
  * <li>Values can be separated by <code>;</code> <small>(semicolon)</small> as
  *     well as by <code>,</code> <small>(comma)</small>.</li>
  * </ul>
+ * <p>
+ * The elements of a JSONArray made by a lazy JSONTokener are decoded when
+ * first read, under the JSONArray's lock, and replace their text. Concurrent
+ * reads are therefore safe, but a read racing with a <code>put</code> or
+ * <code>remove</code> is not, as for any JSONArray.
 
  * @author JSON.org
  * @version 2011-11-24
@@ -82,16 +87,26 @@ public class JSONArray {
 
 
     /**
-     * The arrayList where the JSONArray's properties are kept.
+     * The list where the JSONArray's properties are kept. Runs of numbers
+     * are held in primitive arrays.
      */
-    private final ArrayList myArrayList;
+    private final Values values;
 
 
     /**
      * Construct an empty JSONArray.
      */
     public JSONArray() {
-        this.myArrayList = new ArrayList();
+        this.values = new Values();
+    }
+
+
+    /**
+     * Construct a JSONArray around values that are already filled in. Used
+     * by freeze, so that the values are published through the final field.
+     */
+    private JSONArray(Values values) {
+        this.values = values;
     }
 
     /**
@@ -109,10 +124,10 @@ public class JSONArray {
 	        for (;;) {
 	            if (x.nextClean() == ',') {
 	                x.back();
-	                this.myArrayList.add(JSONObject.NULL);
+	                this.values.add(JSONObject.NULL);
 	            } else {
 	                x.back();
-	                this.myArrayList.add(x.nextValue());
+	                this.values.add(x.nextMember());
 	            }
 	            switch (x.nextClean()) {
 	            case ';':
@@ -149,11 +164,11 @@ public class JSONArray {
      * @param collection     A Collection.
      */
     public JSONArray(Collection collection) {
-		this.myArrayList = new ArrayList();
+		this.values = new Values();
 		if (collection != null) {
 			Iterator iter = collection.iterator();
 			while (iter.hasNext()) {
-                this.myArrayList.add(JSONObject.wrap(iter.next()));
+                this.values.add(JSONObject.wrap(iter.next()));
 			}
 		}
     }
@@ -177,6 +192,32 @@ public class JSONArray {
     }
 
 
+    /**
+     * Make a frozen copy of this JSONArray, in the way that
+     * JSONObject.freeze does. The copy cannot be changed, and may be shared
+     * with other threads and read by them without locks.
+     * @return A frozen JSONArray, which is this one if it is frozen already.
+     * @throws JSONException If a deferred value is not valid.
+     */
+    public JSONArray freeze() throws JSONException {
+        if (this.values.frozen) {
+            return this;
+        }
+        Values values;
+        if (this.values.isNumeric()) {
+            values = this.values.copyNumbers();
+        } else {
+            int len = this.length();
+            values = new Values();
+            for (int i = 0; i < len; i += 1) {
+                values.add(JSONObject.freezeValue(this.resolve(i)));
+            }
+        }
+        values.frozen = true;
+        return new JSONArray(values);
+    }
+
+
     /**
      * Get the object value associated with an index.
      * @param index
@@ -185,7 +226,9 @@ public class JSONArray {
      * @throws JSONException If there is no value for the index.
      */
     public Object get(int index) throws JSONException {
-        Object object = this.opt(index);
+        Object object = index < 0 || index >= this.length()
+            ? null
+            : this.resolve(index);
         if (object == null) {
             throw new JSONException("JSONArray[" + index + "] not found.");
         }
@@ -226,6 +269,9 @@ public class JSONArray {
      *  be converted to a number.
      */
     public double getDouble(int index) throws JSONException {
+        if (this.values.isNumeric() && index >= 0 && index < this.length()) {
+            return this.values.getDouble(index);
+        }
         Object object = this.get(index);
         try {
             return object instanceof Number
@@ -328,6 +374,15 @@ public class JSONArray {
     }
 
 
+    /**
+     * Determine if this JSONArray was made by freeze and cannot be changed.
+     * @return true if it is frozen.
+     */
+    public boolean isFrozen() {
+        return this.values.frozen;
+    }
+
+
     /**
      * Determine if the value is null.
      * @param index The index must be between 0 and length() - 1.
@@ -354,7 +409,7 @@ public class JSONArray {
             if (i > 0) {
                 sb.append(separator);
             }
-            sb.append(JSONObject.valueToString(this.myArrayList.get(i)));
+            sb.append(JSONObject.valueToString(this.resolve(i)));
         }
         return sb.toString();
     }
@@ -366,7 +421,7 @@ public class JSONArray {
      * @return The length (or size).
      */
     public int length() {
-        return this.myArrayList.size();
+        return this.values.size();
     }
 
 
@@ -377,9 +432,36 @@ public class JSONArray {
      *              object at that index.
      */
     public Object opt(int index) {
-        return (index < 0 || index >= this.length())
-            ? null
-            : this.myArrayList.get(index);
+        if (index < 0 || index >= this.length()) {
+            return null;
+        }
+        try {
+            return this.resolve(index);
+        } catch (JSONException ignore) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Get the value at an index, first decoding it if it was deferred by
+     * a lazy parse.
+     * @param index The index must be between 0 and length() - 1.
+     * @return The value.
+     * @throws JSONException If a deferred value is not valid.
+     */
+    private Object resolve(int index) throws JSONException {
+        Object value = this.values.get(index);
+        if (value instanceof JSONTokener.Deferred) {
+            synchronized (this) {
+                value = this.values.get(index);
+                if (value instanceof JSONTokener.Deferred) {
+                    value = ((JSONTokener.Deferred) value).decode();
+                    this.values.set(index, value);
+                }
+            }
+        }
+        return value;
     }
 
 
@@ -643,7 +725,7 @@ public class JSONArray {
      * @return this.
      */
     public JSONArray put(Object value) {
-        this.myArrayList.add(value);
+        this.values.add(value);
         return this;
     }
 
@@ -757,7 +839,7 @@ public class JSONArray {
             throw new JSONException("JSONArray[" + index + "] not found.");
         }
         if (index < this.length()) {
-            this.myArrayList.set(index, value);
+            this.values.set(index, value);
         } else {
             while (index != this.length()) {
                 this.put(JSONObject.NULL);
@@ -776,11 +858,29 @@ public class JSONArray {
      */
     public Object remove(int index) {
     	Object o = this.opt(index);
-        this.myArrayList.remove(index);
+        this.values.remove(index);
         return o;
     }
 
 
+    /**
+     * Get the elements of the JSONArray as an array of doubles. This is
+     * a single copy when the JSONArray holds only numbers.
+     * @return An array of doubles.
+     * @throws JSONException If an element cannot be converted to a number.
+     */
+    public double[] toDoubleArray() throws JSONException {
+        if (this.values.isNumeric()) {
+            return this.values.toDoubleArray();
+        }
+        double[] doubles = new double[this.length()];
+        for (int i = 0; i < doubles.length; i += 1) {
+            doubles[i] = this.getDouble(i);
+        }
+        return doubles;
+    }
+
+
     /**
      * Produce a JSONObject by combining a JSONArray of names with the values
      * of this JSONArray.
@@ -814,10 +914,13 @@ public class JSONArray {
      *  representation of the array.
      */
     public String toString() {
+        JSONBuffer buffer = JSONBuffer.acquire();
         try {
-            return '[' + this.join(",") + ']';
+            return this.write(buffer).toString();
         } catch (Exception e) {
             return null;
+        } finally {
+            buffer.release();
         }
     }
 
@@ -849,35 +952,12 @@ public class JSONArray {
      * @throws JSONException
      */
     String toString(int indentFactor, int indent) throws JSONException {
-        int len = this.length();
-        if (len == 0) {
-            return "[]";
-        }
-        int i;
-        StringBuffer sb = new StringBuffer("[");
-        if (len == 1) {
-            sb.append(JSONObject.valueToString(this.myArrayList.get(0),
-                    indentFactor, indent));
-        } else {
-            int newindent = indent + indentFactor;
-            sb.append('\n');
-            for (i = 0; i < len; i += 1) {
-                if (i > 0) {
-                    sb.append(",\n");
-                }
-                for (int j = 0; j < newindent; j += 1) {
-                    sb.append(' ');
-                }
-                sb.append(JSONObject.valueToString(this.myArrayList.get(i),
-                        indentFactor, newindent));
-            }
-            sb.append('\n');
-            for (i = 0; i < indent; i += 1) {
-                sb.append(' ');
-            }
+        JSONBuffer buffer = JSONBuffer.acquire();
+        try {
+            return this.write(buffer, indentFactor, indent).toString();
+        } finally {
+            buffer.release();
         }
-        sb.append(']');
-        return sb.toString();
     }
 
 
@@ -901,13 +981,12 @@ public class JSONArray {
                 if (b) {
                     writer.write(',');
                 }
-                Object v = this.myArrayList.get(i);
-                if (v instanceof JSONObject) {
-                    ((JSONObject)v).write(writer);
-                } else if (v instanceof JSONArray) {
-                    ((JSONArray)v).write(writer);
+                if (this.values.isLong(i)) {
+                    JSONObject.writeLong(writer, this.values.getLong(i));
+                } else if (this.values.isNumeric()) {
+                    JSONObject.writeDouble(writer, this.values.getDouble(i));
                 } else {
-                    writer.write(JSONObject.valueToString(v));
+                    JSONObject.writeValue(writer, this.resolve(i));
                 }
                 b = true;
             }
@@ -917,4 +996,385 @@ public class JSONArray {
            throw new JSONException(e);
         }
     }
-}
\ No newline at end of file
+
+
+    /**
+     * Write the contents of the JSONArray as prettyprinted JSON text to a
+     * writer, in the same form as toString(indentFactor). The text is made
+     * in one pass, straight into the writer.
+     * <p>
+     * Warning: This method assumes that the data structure is acyclical.
+     * @param writer The writer.
+     * @param indentFactor The number of spaces to add to each level of
+     *  indentation.
+     * @param indent The indention of the top level.
+     * @return The writer.
+     * @throws JSONException
+     */
+    public Writer write(Writer writer, int indentFactor, int indent)
+            throws JSONException {
+        try {
+            int len = this.length();
+            writer.write('[');
+            if (len == 1) {
+                this.writeElement(writer, 0, indentFactor, indent);
+            } else if (len > 1) {
+                int newindent = indent + indentFactor;
+                writer.write('\n');
+                for (int i = 0; i < len; i += 1) {
+                    if (i > 0) {
+                        writer.write(",\n");
+                    }
+                    JSONObject.indent(writer, newindent);
+                    this.writeElement(writer, i, indentFactor, newindent);
+                }
+                writer.write('\n');
+                JSONObject.indent(writer, indent);
+            }
+            writer.write(']');
+            return writer;
+        } catch (IOException e) {
+           throw new JSONException(e);
+        }
+    }
+
+
+    /**
+     * Write one element as prettyprinted JSON text, reading a held number
+     * straight from its array.
+     */
+    private void writeElement(Writer writer, int index, int indentFactor,
+            int indent) throws JSONException, IOException {
+        if (this.values.isLong(index)) {
+            JSONObject.writeLong(writer, this.values.getLong(index));
+        } else if (this.values.isNumeric()) {
+            JSONObject.writeDouble(writer, this.values.getDouble(index));
+        } else {
+            JSONObject.writeValue(writer, this.resolve(index), indentFactor,
+                    indent);
+        }
+    }
+
+
+    /**
+     * The elements of a JSONArray. While every element is an Integer, or a
+     * Long too large for an int, they are held in a long[]. While every
+     * element is a Double, or an integer that a double holds exactly, they
+     * are held in a double[], with a bit set marking the integers so that
+     * they are returned as Integers or Longs again. Anything else turns
+     * the list into an ArrayList of objects for good. Frozen values refuse
+     * every change.
+     */
+    private static final class Values {
+        private static final int EMPTY = 0;
+        private static final int LONGS = 1;
+        private static final int DOUBLES = 2;
+        private static final int OBJECTS = 3;
+
+        /**
+         * Integers of at most this magnitude are exact as doubles.
+         */
+        private static final long MAX_EXACT = 1L << 53;
+
+        private double[] doubles;
+        private boolean frozen;
+        private long[] integral;
+        private int kind;
+        private long[] longs;
+        private ArrayList objects;
+        private int size;
+
+        /**
+         * Append a value.
+         */
+        void add(Object value) {
+            this.thawed();
+            if (this.kind == OBJECTS || !this.fits(value)) {
+                this.toObjects();
+                this.objects.add(value);
+                return;
+            }
+            this.grow(this.size + 1);
+            this.size += 1;
+            this.store(this.size - 1, value);
+        }
+
+        /**
+         * Copy a numeric list into new Values with arrays of just its size.
+         */
+        Values copyNumbers() {
+            Values copy = new Values();
+            copy.kind = this.kind;
+            copy.size = this.size;
+            if (this.kind == LONGS) {
+                copy.longs = new long[this.size];
+                System.arraycopy(this.longs, 0, copy.longs, 0, this.size);
+            } else if (this.kind == DOUBLES) {
+                copy.doubles = new double[this.size];
+                System.arraycopy(this.doubles, 0, copy.doubles, 0, this.size);
+                if (this.integral != null) {
+                    copy.integral = new long[(this.size + 63) >>> 6];
+                    System.arraycopy(this.integral, 0, copy.integral, 0,
+                            copy.integral.length);
+                }
+            }
+            return copy;
+        }
+
+        /**
+         * Get the value at an index, boxing it if it is held as a number.
+         */
+        Object get(int index) {
+            switch (this.kind) {
+            case LONGS:
+                return box(this.longs[index]);
+            case DOUBLES:
+                if (this.isIntegral(index)) {
+                    return box((long)this.doubles[index]);
+                }
+                return new Double(this.doubles[index]);
+            case OBJECTS:
+                return this.objects.get(index);
+            default:
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+        }
+
+        /**
+         * Get the number at an index without boxing it. Only for a numeric
+         * list.
+         */
+        double getDouble(int index) {
+            return this.kind == LONGS
+                ? (double)this.longs[index]
+                : this.doubles[index];
+        }
+
+        /**
+         * Get the integer at an index without boxing it. Only for an index
+         * where isLong is true.
+         */
+        long getLong(int index) {
+            return this.kind == LONGS
+                ? this.longs[index]
+                : (long)this.doubles[index];
+        }
+
+        /**
+         * Determine if the value at an index is an integer held as a
+         * primitive number.
+         */
+        boolean isLong(int index) {
+            return this.kind == LONGS ||
+                (this.kind == DOUBLES && this.isIntegral(index));
+        }
+
+        /**
+         * Determine if every element is held as a primitive number.
+         */
+        boolean isNumeric() {
+            return this.kind == LONGS || this.kind == DOUBLES;
+        }
+
+        /**
+         * Remove the value at an index and close the hole.
+         */
+        void remove(int index) {
+            this.thawed();
+            if (this.kind == OBJECTS) {
+                this.objects.remove(index);
+                return;
+            }
+            if (index < 0 || index >= this.size) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            int moved = this.size - index - 1;
+            if (this.kind == LONGS) {
+                System.arraycopy(this.longs, index + 1, this.longs, index,
+                        moved);
+            } else {
+                System.arraycopy(this.doubles, index + 1, this.doubles,
+                        index, moved);
+                if (this.integral != null) {
+                    for (int i = index; i < this.size - 1; i += 1) {
+                        this.setIntegral(i, this.isIntegral(i + 1));
+                    }
+                    this.setIntegral(this.size - 1, false);
+                }
+            }
+            this.size -= 1;
+        }
+
+        /**
+         * Replace the value at an index.
+         */
+        void set(int index, Object value) {
+            this.thawed();
+            if (this.kind == OBJECTS || !this.fits(value)) {
+                this.toObjects();
+                this.objects.set(index, value);
+                return;
+            }
+            if (index < 0 || index >= this.size) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            this.store(index, value);
+        }
+
+        int size() {
+            return this.kind == OBJECTS ? this.objects.size() : this.size;
+        }
+
+        /**
+         * Copy a numeric list into a new array of doubles.
+         */
+        double[] toDoubleArray() {
+            double[] result = new double[this.size];
+            if (this.kind == LONGS) {
+                for (int i = 0; i < this.size; i += 1) {
+                    result[i] = this.longs[i];
+                }
+            } else {
+                System.arraycopy(this.doubles, 0, result, 0, this.size);
+            }
+            return result;
+        }
+
+        private static Object box(long value) {
+            if (value == (int)value) {
+                return Integer.valueOf((int)value);
+            }
+            return Long.valueOf(value);
+        }
+
+        /**
+         * Determine if a value can be held in primitive storage, switching
+         * from longs to doubles if that is what it takes.
+         */
+        private boolean fits(Object value) {
+            if (value instanceof Integer || (value instanceof Long &&
+                    ((Long)value).longValue() !=
+                    ((Long)value).intValue())) {
+                if (this.kind == EMPTY) {
+                    this.kind = LONGS;
+                }
+                if (this.kind == LONGS) {
+                    return true;
+                }
+                long l = ((Number)value).longValue();
+                return l >= -MAX_EXACT && l <= MAX_EXACT;
+            }
+            if (!(value instanceof Double)) {
+                return false;
+            }
+            if (this.kind == EMPTY) {
+                this.kind = DOUBLES;
+            } else if (this.kind == LONGS) {
+                for (int i = 0; i < this.size; i += 1) {
+                    if (this.longs[i] < -MAX_EXACT ||
+                            this.longs[i] > MAX_EXACT) {
+                        return false;
+                    }
+                }
+                this.doubles = new double[Math.max(this.longs.length, 1)];
+                this.integral = new long[(this.doubles.length + 63) >>> 6];
+                for (int i = 0; i < this.size; i += 1) {
+                    this.doubles[i] = this.longs[i];
+                    this.setIntegral(i, true);
+                }
+                this.longs = null;
+                this.kind = DOUBLES;
+            }
+            return true;
+        }
+
+        /**
+         * Make room for a number of values in the primitive storage.
+         */
+        private void grow(int capacity) {
+            int length = this.kind == LONGS
+                ? (this.longs == null ? 0 : this.longs.length)
+                : (this.doubles == null ? 0 : this.doubles.length);
+            if (capacity <= length) {
+                return;
+            }
+            int grown = Math.max(capacity, Math.max(10, length * 3 / 2));
+            if (this.kind == LONGS) {
+                long[] l = new long[grown];
+                if (this.longs != null) {
+                    System.arraycopy(this.longs, 0, l, 0, this.size);
+                }
+                this.longs = l;
+            } else {
+                double[] d = new double[grown];
+                if (this.doubles != null) {
+                    System.arraycopy(this.doubles, 0, d, 0, this.size);
+                }
+                this.doubles = d;
+                if (this.integral != null) {
+                    long[] bits = new long[(grown + 63) >>> 6];
+                    System.arraycopy(this.integral, 0, bits, 0,
+                            this.integral.length);
+                    this.integral = bits;
+                }
+            }
+        }
+
+        private boolean isIntegral(int index) {
+            return this.integral != null &&
+                (this.integral[index >>> 6] & (1L << index)) != 0;
+        }
+
+        private void setIntegral(int index, boolean value) {
+            if (value) {
+                if (this.integral == null) {
+                    this.integral = new long[(this.doubles.length + 63) >>> 6];
+                }
+                this.integral[index >>> 6] |= 1L << index;
+            } else if (this.integral != null) {
+                this.integral[index >>> 6] &= ~(1L << index);
+            }
+        }
+
+        /**
+         * Store a value that fits at an index in the primitive storage.
+         */
+        private void store(int index, Object value) {
+            if (this.kind == LONGS) {
+                this.longs[index] = ((Number)value).longValue();
+            } else {
+                this.doubles[index] = ((Number)value).doubleValue();
+                this.setIntegral(index, !(value instanceof Double));
+            }
+        }
+
+        /**
+         * Make sure that the values may be changed.
+         */
+        private void thawed() {
+            if (this.frozen) {
+                throw new UnsupportedOperationException(
+                        "JSONArray is frozen.");
+            }
+        }
+
+        /**
+         * Move every value into an ArrayList of objects.
+         */
+        private void toObjects() {
+            if (this.kind == OBJECTS) {
+                return;
+            }
+            ArrayList list = new ArrayList(Math.max(this.size, 10));
+            for (int i = 0; i < this.size; i += 1) {
+                list.add(this.get(i));
+            }
+            this.objects = list;
+            this.doubles = null;
+            this.integral = null;
+            this.longs = null;
+            this.size = 0;
+            this.kind = OBJECTS;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.json;
+
+import java.io.Writer;
+
+/**
+ * A JSONBuffer is a Writer that collects JSON text in a char array. Unlike
+ * a StringWriter it is not synchronized. Each thread keeps one buffer that
+ * it lends out with <code>acquire</code> and takes back with
+ * <code>release</code>, so that toString does not start from a fresh,
+ * small buffer for every document. A buffer that has to be made anew is
+ * sized for the last document the thread wrote, which is usually a good
+ * guess for the next.
+ */
+final class JSONBuffer extends Writer {
+
+    /**
+     * A buffer that grew larger than this is not kept for reuse.
+     */
+    private static final int MAX_POOLED = 1 << 16;
+
+    /**
+     * The pool of each thread.
+     */
+    private static final ThreadLocal POOL = new ThreadLocal() {
+        protected Object initialValue() {
+            return new Pool();
+        }
+    };
+
+    private char[] chars;
+    private int length;
+
+
+    /**
+     * Make a fresh JSONBuffer.
+     * @param capacity The number of chars it can hold before growing.
+     */
+    JSONBuffer(int capacity) {
+        this.chars = new char[Math.max(capacity, 16)];
+    }
+
+
+    /**
+     * Get this thread's buffer, empty, or a new one if it is in use.
+     * @return A JSONBuffer, to be given back with release.
+     */
+    static JSONBuffer acquire() {
+        Pool pool = (Pool)POOL.get();
+        JSONBuffer buffer = pool.free;
+        if (buffer == null) {
+            return new JSONBuffer(pool.estimate);
+        }
+        pool.free = null;
+        return buffer;
+    }
+
+
+    /**
+     * Give a buffer back to this thread's pool. Its contents are lost.
+     */
+    void release() {
+        Pool pool = (Pool)POOL.get();
+        pool.estimate = Math.min(this.length + (this.length >> 3),
+                MAX_POOLED);
+        if (pool.free == null && this.chars.length <= MAX_POOLED) {
+            this.length = 0;
+            pool.free = this;
+        }
+    }
+
+
+    public void close() {
+    }
+
+
+    public void flush() {
+    }
+
+
+    /**
+     * Get the number of chars written.
+     * @return The length.
+     */
+    int length() {
+        return this.length;
+    }
+
+
+    /**
+     * Get the text written so far.
+     * @return The text.
+     */
+    public String toString() {
+        return new String(this.chars, 0, this.length);
+    }
+
+
+    public void write(char[] cbuf, int off, int len) {
+        this.ensure(len);
+        System.arraycopy(cbuf, off, this.chars, this.length, len);
+        this.length += len;
+    }
+
+
+    public void write(int c) {
+        this.ensure(1);
+        this.chars[this.length] = (char)c;
+        this.length += 1;
+    }
+
+
+    public void write(String str) {
+        this.write(str, 0, str.length());
+    }
+
+
+    public void write(String str, int off, int len) {
+        this.ensure(len);
+        str.getChars(off, off + len, this.chars, this.length);
+        this.length += len;
+    }
+
+
+    /**
+     * Make room for more chars, at least doubling the array if it has to
+     * grow.
+     */
+    private void ensure(int more) {
+        int needed = this.length + more;
+        if (needed > this.chars.length) {
+            char[] grown = new char[Math.max(needed, this.chars.length * 2)];
+            System.arraycopy(this.chars, 0, grown, 0, this.length);
+            this.chars = grown;
+        }
+    }
+
+
+    /**
+     * The buffer a thread has free, and the size to give a new one.
+     */
+    private static final class Pool {
+        int estimate = 16;
+        JSONBuffer free;
+    }
+}
@@ -0,0 +1,499 @@
+package org.json;
+
+import java.io.Reader;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+/**
+ * A JSONCodec turns JSON objects into objects of a class, the reverse of
+ * what the JSONObject(Object bean) constructor does. The members of a JSON
+ * object are stored in the fields of the same name, read straight from a
+ * JSONReader without building a JSONObject first. For example, <pre>
+ * Reading reading = (Reading)JSONCodec.forClass(Reading.class)
+ *     .read(myJSONText);</pre>
+ * <p>
+ * The class must have a constructor without arguments, which need not be
+ * public. Every field that is not static, transient or final is bound,
+ * including those of superclasses. A field can be a primitive, a wrapper,
+ * a String, an enum, an array, a Collection or Map (which get the plain
+ * values of a JSONArray or JSONObject), a JSONObject, JSONArray or Object
+ * (which get the value as the JSONTokener would make it), or another class
+ * that is bound in the same way. Members without a field are skipped. A
+ * null leaves a primitive field alone.
+ * <p>
+ * A Collection or Map field of a concrete class gets a new object of that
+ * class, which must have a constructor without arguments. A field of an
+ * interface or abstract type gets the first of ArrayList, LinkedList,
+ * HashSet, TreeSet, HashMap and TreeMap that it can hold, so a List gets an
+ * ArrayList, a Queue or Deque a LinkedList, a Set a HashSet, and a
+ * SortedSet or SortedMap a TreeSet or TreeMap.
+ * <p>
+ * The fields of a class are looked up once, when its codec is first asked
+ * for. Codecs are kept for later calls to forClass, and can be used by
+ * several threads at once.
+ */
+public class JSONCodec {
+
+    /**
+     * The codec of each class seen so far. The classes are held weakly, and
+     * the codecs softly because their fields refer back to the class.
+     */
+    private static final Map CACHE = new WeakHashMap();
+
+    /**
+     * The classes made for Collection and Map fields of an interface or
+     * abstract type, in order of preference.
+     */
+    private static final Class[] CONTAINERS = {
+        ArrayList.class, LinkedList.class, HashSet.class, TreeSet.class,
+        HashMap.class, TreeMap.class
+    };
+
+    /**
+     * The kinds of fields.
+     */
+    private static final int BOOLEAN = 1;
+    private static final int BYTE = 2;
+    private static final int CHAR = 3;
+    private static final int SHORT = 4;
+    private static final int INT = 5;
+    private static final int LONG = 6;
+    private static final int FLOAT = 7;
+    private static final int DOUBLE = 8;
+    private static final int OBJECT = 9;
+
+    /**
+     * The fields, by member name.
+     */
+    private final Map bindings;
+
+    /**
+     * The constructor that makes the objects to fill.
+     */
+    private final Constructor constructor;
+
+
+    /**
+     * Construct a JSONCodec for a class.
+     * @param klass The class.
+     * @throws JSONException If the class has no constructor without
+     *  arguments.
+     */
+    private JSONCodec(Class klass) throws JSONException {
+        try {
+            this.constructor = klass.getDeclaredConstructor(new Class[0]);
+            this.constructor.setAccessible(true);
+        } catch (Exception e) {
+            throw new JSONException("JSONCodec needs a constructor without " +
+                    "arguments in " + klass.getName());
+        }
+        this.bindings = new HashMap();
+        for (Class c = klass; c != null && c != Object.class;
+                c = c.getSuperclass()) {
+            Field[] fields = c.getDeclaredFields();
+            for (int i = 0; i < fields.length; i += 1) {
+                Field field = fields[i];
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) ||
+                        Modifier.isTransient(modifiers) ||
+                        Modifier.isFinal(modifiers) || field.isSynthetic() ||
+                        this.bindings.containsKey(field.getName())) {
+                    continue;
+                }
+                field.setAccessible(true);
+                this.bindings.put(field.getName(), new Binding(field));
+            }
+        }
+    }
+
+
+    /**
+     * Get the JSONCodec for a class. It is made the first time the class is
+     * asked for, and kept for later calls.
+     * @param klass The class.
+     * @return The JSONCodec.
+     * @throws JSONException If the class has no constructor without
+     *  arguments.
+     */
+    public static JSONCodec forClass(Class klass) throws JSONException {
+        JSONCodec codec = null;
+        synchronized (CACHE) {
+            SoftReference reference = (SoftReference)CACHE.get(klass);
+            if (reference != null) {
+                codec = (JSONCodec)reference.get();
+            }
+        }
+        if (codec == null) {
+            codec = new JSONCodec(klass);
+            synchronized (CACHE) {
+                CACHE.put(klass, new SoftReference(codec));
+            }
+        }
+        return codec;
+    }
+
+
+    /**
+     * Read an object from a JSONReader. The reader must be at the start of
+     * an object, or at a null.
+     * @param reader A JSONReader.
+     * @return A new object of the codec's class, or null.
+     * @throws JSONException If the text is not an object, or a member does
+     *  not fit its field.
+     */
+    public Object read(JSONReader reader) throws JSONException {
+        if (reader.peek() == JSONReader.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        Object object;
+        try {
+            object = this.constructor.newInstance(new Object[0]);
+        } catch (Exception e) {
+            throw new JSONException(e);
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            Binding binding = (Binding)this.bindings.get(reader.nextName());
+            if (binding == null) {
+                reader.skipValue();
+            } else {
+                binding.read(reader, object);
+            }
+        }
+        reader.endObject();
+        return object;
+    }
+
+
+    /**
+     * Read an object from a Reader.
+     * @param reader A reader.
+     * @return A new object of the codec's class, or null.
+     * @throws JSONException If the text is not an object, or a member does
+     *  not fit its field.
+     */
+    public Object read(Reader reader) throws JSONException {
+        return this.read(new JSONReader(reader));
+    }
+
+
+    /**
+     * Read an object from a source JSON text string.
+     * @param source A string beginning
+     *  with <code>{</code>&nbsp;<small>(left brace)</small> and ending
+     *  with <code>}</code>&nbsp;<small>(right brace)</small>.
+     * @return A new object of the codec's class, or null.
+     * @throws JSONException If the text is not an object, or a member does
+     *  not fit its field.
+     */
+    public Object read(String source) throws JSONException {
+        return this.read(new JSONReader(new JSONTokener(source)));
+    }
+
+
+    /**
+     * Read a value as the JSONTokener would make it, building a JSONObject
+     * or JSONArray for an object or array.
+     */
+    private static Object readAny(JSONReader reader) throws JSONException {
+        switch (reader.nextToken()) {
+        case JSONReader.BEGIN_OBJECT:
+            JSONObject jo = new JSONObject();
+            while (reader.hasNext()) {
+                jo.putOnce(reader.nextName(), readAny(reader));
+            }
+            reader.endObject();
+            return jo;
+        case JSONReader.BEGIN_ARRAY:
+            JSONArray ja = new JSONArray();
+            while (reader.hasNext()) {
+                ja.put(readAny(reader));
+            }
+            reader.endArray();
+            return ja;
+        case JSONReader.STRING:
+        case JSONReader.NUMBER:
+        case JSONReader.BOOLEAN:
+        case JSONReader.NULL:
+            return reader.getValue();
+        default:
+            throw reader.syntaxError("Expected a value");
+        }
+    }
+
+
+    /**
+     * Read a value of a type. A null gives null.
+     * @param reader A JSONReader.
+     * @param type The type.
+     * @return The value, boxed if the type is a primitive.
+     * @throws JSONException If the value does not fit the type.
+     */
+    private static Object readValue(JSONReader reader, Class type)
+            throws JSONException {
+        if (reader.peek() == JSONReader.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        if (type == String.class) {
+            return reader.nextString();
+        }
+        if (type == Double.class || type == Double.TYPE) {
+            return new Double(reader.nextDouble());
+        }
+        if (type == Integer.class || type == Integer.TYPE) {
+            return Integer.valueOf(reader.nextInt());
+        }
+        if (type == Long.class || type == Long.TYPE) {
+            return Long.valueOf(reader.nextLong());
+        }
+        if (type == Boolean.class || type == Boolean.TYPE) {
+            return reader.nextBoolean() ? Boolean.TRUE : Boolean.FALSE;
+        }
+        if (type == Float.class || type == Float.TYPE) {
+            return new Float((float)reader.nextDouble());
+        }
+        if (type == Short.class || type == Short.TYPE) {
+            return Short.valueOf((short)reader.nextInt());
+        }
+        if (type == Byte.class || type == Byte.TYPE) {
+            return Byte.valueOf((byte)reader.nextInt());
+        }
+        if (type == Character.class || type == Character.TYPE) {
+            String string = reader.nextString();
+            if (string.length() != 1) {
+                throw reader.syntaxError("Expected a single character");
+            }
+            return Character.valueOf(string.charAt(0));
+        }
+        if (type.isEnum()) {
+            try {
+                return Enum.valueOf(type, reader.nextString());
+            } catch (IllegalArgumentException e) {
+                throw reader.syntaxError("Expected a " + type.getName());
+            }
+        }
+        if (type.isArray()) {
+            Class component = type.getComponentType();
+            ArrayList list = new ArrayList();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                list.add(readValue(reader, component));
+            }
+            reader.endArray();
+            Object array = Array.newInstance(component, list.size());
+            for (int i = 0; i < list.size(); i += 1) {
+                try {
+                    Array.set(array, i, list.get(i));
+                } catch (IllegalArgumentException e) {
+                    throw reader.syntaxError("Expected a " +
+                            component.getName());
+                }
+            }
+            return array;
+        }
+        if (type == Object.class || type == JSONObject.class ||
+                type == JSONArray.class) {
+            Object value = readAny(reader);
+            if (!type.isInstance(value)) {
+                throw reader.syntaxError("Expected a " + type.getName());
+            }
+            return value;
+        }
+        Object container = newContainer(type);
+        if (container instanceof Collection) {
+            Collection collection = (Collection)container;
+            reader.beginArray();
+            while (reader.hasNext()) {
+                Object value = plain(readAny(reader));
+                try {
+                    collection.add(value);
+                } catch (RuntimeException e) {
+                    throw reader.syntaxError("Value does not fit a " +
+                            container.getClass().getName());
+                }
+            }
+            reader.endArray();
+            return collection;
+        }
+        if (container instanceof Map) {
+            Map map = (Map)container;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                Object value = plain(readAny(reader));
+                try {
+                    map.put(key, value);
+                } catch (RuntimeException e) {
+                    throw reader.syntaxError("Value does not fit a " +
+                            container.getClass().getName());
+                }
+            }
+            reader.endObject();
+            return map;
+        }
+        return forClass(type).read(reader);
+    }
+
+
+    /**
+     * Make an empty Collection or Map for a field type.
+     * @param type The type.
+     * @return A new Collection or Map, or null if the type is neither and
+     *  can hold neither an ArrayList nor a HashMap.
+     * @throws JSONException If the type is a Collection or Map that cannot
+     *  be made.
+     */
+    private static Object newContainer(Class type) throws JSONException {
+        boolean container = Collection.class.isAssignableFrom(type) ||
+                Map.class.isAssignableFrom(type);
+        if (container && !type.isInterface() &&
+                !Modifier.isAbstract(type.getModifiers())) {
+            try {
+                Constructor constructor =
+                        type.getDeclaredConstructor(new Class[0]);
+                constructor.setAccessible(true);
+                return constructor.newInstance(new Object[0]);
+            } catch (Exception e) {
+                throw new JSONException("JSONCodec needs a constructor " +
+                        "without arguments in " + type.getName());
+            }
+        }
+        for (int i = 0; i < CONTAINERS.length; i += 1) {
+            if (type.isAssignableFrom(CONTAINERS[i])) {
+                try {
+                    return CONTAINERS[i].getDeclaredConstructor(new Class[0])
+                            .newInstance(new Object[0]);
+                } catch (Exception e) {
+                    throw new JSONException(e);
+                }
+            }
+        }
+        if (container) {
+            throw new JSONException("JSONCodec cannot make a " +
+                    type.getName() + " for a Collection or Map field");
+        }
+        return null;
+    }
+
+
+    /**
+     * Turn a value for a Collection or Map into a plain Java value, with
+     * Maps and Lists in place of JSONObjects and JSONArrays and null in
+     * place of JSONObject.NULL.
+     */
+    private static Object plain(Object value) throws JSONException {
+        if (value instanceof JSONObject) {
+            JSONObject jo = (JSONObject)value;
+            HashMap map = new HashMap();
+            Iterator keys = jo.keys();
+            while (keys.hasNext()) {
+                Object key = keys.next();
+                map.put(key, plain(jo.opt(key.toString())));
+            }
+            return map;
+        }
+        if (value instanceof JSONArray) {
+            JSONArray ja = (JSONArray)value;
+            ArrayList list = new ArrayList(ja.length());
+            for (int i = 0; i < ja.length(); i += 1) {
+                list.add(plain(ja.opt(i)));
+            }
+            return list;
+        }
+        return JSONObject.NULL.equals(value) ? null : value;
+    }
+
+
+    /**
+     * A field and how to read a value for it.
+     */
+    private static final class Binding {
+        private final Field field;
+        private final int kind;
+
+        Binding(Field field) {
+            Class type = field.getType();
+            this.field = field;
+            if (type == Boolean.TYPE) {
+                this.kind = BOOLEAN;
+            } else if (type == Byte.TYPE) {
+                this.kind = BYTE;
+            } else if (type == Character.TYPE) {
+                this.kind = CHAR;
+            } else if (type == Short.TYPE) {
+                this.kind = SHORT;
+            } else if (type == Integer.TYPE) {
+                this.kind = INT;
+            } else if (type == Long.TYPE) {
+                this.kind = LONG;
+            } else if (type == Float.TYPE) {
+                this.kind = FLOAT;
+            } else if (type == Double.TYPE) {
+                this.kind = DOUBLE;
+            } else {
+                this.kind = OBJECT;
+            }
+        }
+
+        /**
+         * Read the value of the field. Primitives are stored without being
+         * boxed.
+         */
+        void read(JSONReader reader, Object object) throws JSONException {
+            try {
+                if (this.kind != OBJECT &&
+                        reader.peek() == JSONReader.NULL) {
+                    reader.nextNull();
+                    return;
+                }
+                switch (this.kind) {
+                case BOOLEAN:
+                    this.field.setBoolean(object, reader.nextBoolean());
+                    break;
+                case BYTE:
+                    this.field.setByte(object, (byte)reader.nextInt());
+                    break;
+                case CHAR:
+                    this.field.setChar(object, ((Character)readValue(reader,
+                            Character.TYPE)).charValue());
+                    break;
+                case SHORT:
+                    this.field.setShort(object, (short)reader.nextInt());
+                    break;
+                case INT:
+                    this.field.setInt(object, reader.nextInt());
+                    break;
+                case LONG:
+                    this.field.setLong(object, reader.nextLong());
+                    break;
+                case FLOAT:
+                    this.field.setFloat(object, (float)reader.nextDouble());
+                    break;
+                case DOUBLE:
+                    this.field.setDouble(object, reader.nextDouble());
+                    break;
+                default:
+                    this.field.set(object,
+                            readValue(reader, this.field.getType()));
+                }
+            } catch (IllegalAccessException e) {
+                throw new JSONException(e);
+            }
+        }
+    }
+}
@@ -26,16 +26,22 @@ SOFTWARE.
 
 import java.io.IOException;
 import java.io.Writer;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.ResourceBundle;
+import java.util.WeakHashMap;
 
 /**
  * A JSONObject is an unordered collection of name/value pairs. Its
@@ -84,6 +90,13 @@ import java.util.ResourceBundle;
  * <li>Values can be followed by <code>;</code> <small>(semicolon)</small> as
  *     well as by <code>,</code> <small>(comma)</small>.</li>
  * </ul>
+ * <p>
+ * A JSONObject made by a lazy JSONTokener decodes each value the first time
+ * it is read, and keeps the decoded value in place of its text, so reading
+ * it changes it. The decoding is done while holding the JSONObject's lock, so
+ * several threads may read it at once. Reads are still not thread-safe
+ * against writes: a JSONObject shared between threads must not be changed
+ * while others read it, which freezing it rules out.
  * @author JSON.org
  * @version 2011-11-24
  */
@@ -128,7 +141,7 @@ public class JSONObject {
     /**
      * The map where the JSONObject's properties are kept.
      */
-    private final Map map;
+    private final Members map;
 
 
     /**
@@ -140,11 +153,48 @@ public class JSONObject {
     public static final Object NULL = new Null();
 
 
+    /**
+     * The hexadecimal digits, for writing unicode escapes.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+
+    /**
+     * The escape sequence of each ASCII character that needs one, or null.
+     * The escape for '/' is only used right after a '<'.
+     */
+    private static final String[] ESCAPES = new String[128];
+
+    static {
+        for (int c = 0; c < ' '; c += 1) {
+            ESCAPES[c] = "\\u00" + HEX_DIGITS[c >>> 4] + HEX_DIGITS[c & 0xF];
+        }
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\t'] = "\\t";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\f'] = "\\f";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+        ESCAPES['/'] = "\\/";
+    }
+
+
     /**
      * Construct an empty JSONObject.
      */
     public JSONObject() {
-        this.map = new HashMap();
+        this.map = new Members();
+    }
+
+
+    /**
+     * Construct a JSONObject around members that are already filled in.
+     * Used by freeze, so that the members are published through the final
+     * field.
+     */
+    private JSONObject(Members map) {
+        this.map = map;
     }
 
 
@@ -191,7 +241,7 @@ public class JSONObject {
                 return;
             default:
                 x.back();
-                key = x.nextValue().toString();
+                key = x.nextKey();
             }
 
 // The key is followed by ':'. We will also tolerate '=' or '=>'.
@@ -204,7 +254,7 @@ public class JSONObject {
             } else if (c != ':') {
                 throw x.syntaxError("Expected a ':' after a key");
             }
-            this.putOnce(key, x.nextValue());
+            this.putOnce(key, x.nextMember());
 
 // Pairs are separated by ','. We will also tolerate ';'.
 
@@ -233,7 +283,7 @@ public class JSONObject {
      * @throws JSONException
      */
     public JSONObject(Map map) {
-        this.map = new HashMap();
+        this.map = new Members();
         if (map != null) {
             Iterator i = map.entrySet().iterator();
             while (i.hasNext()) {
@@ -421,6 +471,11 @@ public class JSONObject {
         if (Double.isInfinite(d) || Double.isNaN(d)) {
             return "null";
         }
+        char[] chars = (char[])DIGITS.get();
+        int length = formatDouble(d, chars);
+        if (length >= 0) {
+            return new String(chars, 0, length);
+        }
 
 // Shave off trailing zeros and decimal point, if possible.
 
@@ -438,6 +493,34 @@ public class JSONObject {
     }
 
 
+    /**
+     * Make a frozen copy of this JSONObject. Every value that was deferred
+     * by a lazy parse is decoded, and every nested JSONObject, JSONArray,
+     * Map, Collection or array is made into a frozen JSONObject or
+     * JSONArray as well. The copy cannot be changed: put, remove and the
+     * like throw an UnsupportedOperationException. As its contents are
+     * reached through final fields, it may be shared with other threads
+     * and read by them without locks, however it is published. Other
+     * objects held as values, such as beans or JSONString values, are
+     * shared as they are.
+     * @return A frozen JSONObject, which is this one if it is frozen already.
+     * @throws JSONException If a deferred value is not valid.
+     */
+    public JSONObject freeze() throws JSONException {
+        if (this.map.frozen) {
+            return this;
+        }
+        Members members = new Members();
+        Iterator keys = this.keys();
+        while (keys.hasNext()) {
+            Object key = keys.next();
+            members.put(key, freezeValue(this.resolve(key)));
+        }
+        members.frozen = true;
+        return new JSONObject(members);
+    }
+
+
     /**
      * Get the value object associated with a key.
      *
@@ -449,7 +532,7 @@ public class JSONObject {
         if (key == null) {
             throw new JSONException("Null key.");
         }
-        Object object = this.opt(key);
+        Object object = this.resolve(key);
         if (object == null) {
             throw new JSONException("JSONObject[" + quote(key) +
                     "] not found.");
@@ -679,6 +762,15 @@ public class JSONObject {
     }
 
 
+    /**
+     * Determine if this JSONObject was made by freeze and cannot be changed.
+     * @return true if it is frozen.
+     */
+    public boolean isFrozen() {
+        return this.map.frozen;
+    }
+
+
     /**
      * Determine if the value associated with the key is null or if there is
      *  no value.
@@ -697,7 +789,7 @@ public class JSONObject {
      * @return An iterator of the keys.
      */
     public Iterator keys() {
-        return this.map.keySet().iterator();
+        return this.map.keys();
     }
 
 
@@ -738,6 +830,13 @@ public class JSONObject {
             throw new JSONException("Null pointer");
         }
         testValidity(number);
+        if (number instanceof Double) {
+            char[] chars = (char[])DIGITS.get();
+            int length = formatDouble(number.doubleValue(), chars);
+            if (length >= 0) {
+                return new String(chars, 0, length);
+            }
+        }
 
 // Shave off trailing zeros and decimal point, if possible.
 
@@ -761,7 +860,14 @@ public class JSONObject {
      * @return      An object which is the value, or null if there is no value.
      */
     public Object opt(String key) {
-        return key == null ? null : this.map.get(key);
+        if (key == null) {
+            return null;
+        }
+        try {
+            return this.resolve(key);
+        } catch (JSONException ignore) {
+            return null;
+        }
     }
 
 
@@ -951,46 +1057,17 @@ public class JSONObject {
 
 
     private void populateMap(Object bean) {
-        Class klass = bean.getClass();
-
-// If klass is a System class then set includeSuperClass to false.
+        this.populateMap(bean, Accessors.forClass(bean.getClass()));
+    }
 
-        boolean includeSuperClass = klass.getClassLoader() != null;
 
-        Method[] methods = includeSuperClass
-                ? klass.getMethods()
-                : klass.getDeclaredMethods();
-        for (int i = 0; i < methods.length; i += 1) {
+    private void populateMap(Object bean, Accessors accessors) {
+        for (int i = 0; i < accessors.getters.length; i += 1) {
             try {
-                Method method = methods[i];
-                if (Modifier.isPublic(method.getModifiers())) {
-                    String name = method.getName();
-                    String key = "";
-                    if (name.startsWith("get")) {
-                        if (name.equals("getClass") ||
-                                name.equals("getDeclaringClass")) {
-                            key = "";
-                        } else {
-                            key = name.substring(3);
-                        }
-                    } else if (name.startsWith("is")) {
-                        key = name.substring(2);
-                    }
-                    if (key.length() > 0 &&
-                            Character.isUpperCase(key.charAt(0)) &&
-                            method.getParameterTypes().length == 0) {
-                        if (key.length() == 1) {
-                            key = key.toLowerCase();
-                        } else if (!Character.isUpperCase(key.charAt(1))) {
-                            key = key.substring(0, 1).toLowerCase() +
-                                key.substring(1);
-                        }
-
-                        Object result = method.invoke(bean, (Object[])null);
-                        if (result != null) {
-                            this.map.put(key, wrap(result));
-                        }
-                    }
+                Object result = accessors.getters[i].invoke(bean,
+                        (Object[])null);
+                if (result != null) {
+                    this.map.put(accessors.keys[i], wrap(result));
                 }
             } catch (Exception ignore) {
             }
@@ -1118,7 +1195,7 @@ public class JSONObject {
      */
     public JSONObject putOnce(String key, Object value) throws JSONException {
         if (key != null && value != null) {
-            if (this.opt(key) != null) {
+            if (this.map.containsKey(key)) {
                 throw new JSONException("Duplicate key \"" + key + "\"");
             }
             this.put(key, value);
@@ -1157,57 +1234,80 @@ public class JSONObject {
         if (string == null || string.length() == 0) {
             return "\"\"";
         }
+        int len = string.length();
+        if (nextEscape(string, 0) == len) {
+            return new StringBuilder(len + 2).append('"').append(string)
+                .append('"').toString();
+        }
+        try {
+            return quote(string, new JSONBuffer(len + 16)).toString();
+        } catch (IOException ignored) {
+            // will never happen - we are writing to a buffer
+            return "";
+        }
+    }
+
+    /**
+     * Write a string in double quotes with backslash sequences in all the
+     * right places, as quote(String) would produce it. Runs of characters
+     * that need no escaping are written in one piece, so a string that
+     * needs no escaping at all is written as it is.
+     * @param string A String
+     * @param w The writer.
+     * @return The writer.
+     * @throws IOException
+     */
+    public static Writer quote(String string, Writer w) throws IOException {
+        if (string == null || string.length() == 0) {
+            w.write("\"\"");
+            return w;
+        }
 
-        char         b;
-        char         c = 0;
-        String       hhhh;
-        int          i;
+        char         c;
         int          len = string.length();
-        StringBuffer sb = new StringBuffer(len + 4);
+        int          start = 0;
+        int          i = nextEscape(string, 0);
 
-        sb.append('"');
-        for (i = 0; i < len; i += 1) {
-            b = c;
+        w.write('"');
+        while (i < len) {
+            w.write(string, start, i - start);
             c = string.charAt(i);
-            switch (c) {
-            case '\\':
-            case '"':
-                sb.append('\\');
-                sb.append(c);
-                break;
-            case '/':
-                if (b == '<') {
-                    sb.append('\\');
-                }
-                sb.append(c);
-                break;
-            case '\b':
-                sb.append("\\b");
-                break;
-            case '\t':
-                sb.append("\\t");
-                break;
-            case '\n':
-                sb.append("\\n");
-                break;
-            case '\f':
-                sb.append("\\f");
-                break;
-            case '\r':
-                sb.append("\\r");
-                break;
-            default:
-                if (c < ' ' || (c >= '\u0080' && c < '\u00a0') ||
-                               (c >= '\u2000' && c < '\u2100')) {
-                    hhhh = "000" + Integer.toHexString(c);
-                    sb.append("\\u" + hhhh.substring(hhhh.length() - 4));
-                } else {
-                    sb.append(c);
+            if (c < ESCAPES.length) {
+                w.write(ESCAPES[c]);
+            } else {
+                w.write(new char[] {'\\', 'u',
+                    HEX_DIGITS[c >>> 12], HEX_DIGITS[(c >>> 8) & 0xF],
+                    HEX_DIGITS[(c >>> 4) & 0xF], HEX_DIGITS[c & 0xF]});
+            }
+            start = i + 1;
+            i = nextEscape(string, start);
+        }
+        w.write(string, start, len - start);
+        w.write('"');
+        return w;
+    }
+
+    /**
+     * Find the next character of a string that quote has to escape.
+     * @param string A String
+     * @param from The index to start looking at.
+     * @return The index of the character, or the length of the string if
+     *  there is none.
+     */
+    private static int nextEscape(String string, int from) {
+        int len = string.length();
+        for (int i = from; i < len; i += 1) {
+            char c = string.charAt(i);
+            if (c < ESCAPES.length) {
+                if (ESCAPES[c] != null && (c != '/' ||
+                        (i > 0 && string.charAt(i - 1) == '<'))) {
+                    return i;
                 }
+            } else if (c < '\u00a0' || (c >= '\u2000' && c < '\u2100')) {
+                return i;
             }
         }
-        sb.append('"');
-        return sb.toString();
+        return len;
     }
 
     /**
@@ -1217,7 +1317,60 @@ public class JSONObject {
      * or null if there was no value.
      */
     public Object remove(String key) {
-        return this.map.remove(key);
+        Object value = this.opt(key);
+        this.map.remove(key);
+        return value;
+    }
+
+
+    /**
+     * Get the value associated with a key, first decoding it if it was
+     * deferred by a lazy parse.
+     * @param key A key.
+     * @return The value, or null if there is no value.
+     * @throws JSONException If a deferred value is not valid.
+     */
+    private Object resolve(Object key) throws JSONException {
+        Object value = this.map.get(key);
+        if (value instanceof JSONTokener.Deferred) {
+            synchronized (this) {
+                value = this.map.get(key);
+                if (value instanceof JSONTokener.Deferred) {
+                    value = ((JSONTokener.Deferred) value).decode();
+                    this.map.put(key, value);
+                }
+            }
+        }
+        return value;
+    }
+
+
+    /**
+     * Make a value fit to be held by a frozen JSONObject or JSONArray.
+     * @param value A value, not deferred.
+     * @return The value, or a frozen JSONObject or JSONArray in its place.
+     * @throws JSONException If a deferred value within it is not valid.
+     */
+    static Object freezeValue(Object value) throws JSONException {
+        if (value instanceof JSONObject) {
+            return ((JSONObject)value).freeze();
+        }
+        if (value instanceof JSONArray) {
+            return ((JSONArray)value).freeze();
+        }
+        if (value instanceof JSONString) {
+            return value;
+        }
+        if (value instanceof Map) {
+            return new JSONObject((Map)value).freeze();
+        }
+        if (value instanceof Collection) {
+            return new JSONArray((Collection)value).freeze();
+        }
+        if (value != null && value.getClass().isArray()) {
+            return new JSONArray(value).freeze();
+        }
+        return value;
     }
 
     /**
@@ -1227,19 +1380,9 @@ public class JSONObject {
      * @return A simple JSON value.
      */
     public static Object stringToValue(String string) {
-        Double d;
         if (string.equals("")) {
             return string;
         }
-        if (string.equalsIgnoreCase("true")) {
-            return Boolean.TRUE;
-        }
-        if (string.equalsIgnoreCase("false")) {
-            return Boolean.FALSE;
-        }
-        if (string.equalsIgnoreCase("null")) {
-            return JSONObject.NULL;
-        }
 
         /*
          * If it might be a number, try converting it.
@@ -1249,27 +1392,9 @@ public class JSONObject {
          * non-JSON forms as long as it accepts all correct JSON forms.
          */
 
-        char b = string.charAt(0);
-        if ((b >= '0' && b <= '9') || b == '.' || b == '-' || b == '+') {
-            try {
-                if (string.indexOf('.') > -1 ||
-                        string.indexOf('e') > -1 || string.indexOf('E') > -1) {
-                    d = Double.valueOf(string);
-                    if (!d.isInfinite() && !d.isNaN()) {
-                        return d;
-                    }
-                } else {
-                    Long myLong = new Long(string);
-                    if (myLong.longValue() == myLong.intValue()) {
-                        return new Integer(myLong.intValue());
-                    } else {
-                        return myLong;
-                    }
-                }
-            }  catch (Exception ignore) {
-            }
-        }
-        return string;
+        char[] chars = string.toCharArray();
+        Object value = JSONTokener.literal(chars, 0, chars.length);
+        return value == null ? string : value;
     }
 
 
@@ -1327,23 +1452,13 @@ public class JSONObject {
      *  with <code>}</code>&nbsp;<small>(right brace)</small>.
      */
     public String toString() {
+        JSONBuffer buffer = JSONBuffer.acquire();
         try {
-            Iterator     keys = this.keys();
-            StringBuffer sb = new StringBuffer("{");
-
-            while (keys.hasNext()) {
-                if (sb.length() > 1) {
-                    sb.append(',');
-                }
-                Object o = keys.next();
-                sb.append(quote(o.toString()));
-                sb.append(':');
-                sb.append(valueToString(this.map.get(o)));
-            }
-            sb.append('}');
-            return sb.toString();
+            return this.write(buffer).toString();
         } catch (Exception e) {
             return null;
+        } finally {
+            buffer.release();
         }
     }
 
@@ -1379,46 +1494,12 @@ public class JSONObject {
      * @throws JSONException If the object contains an invalid number.
      */
     String toString(int indentFactor, int indent) throws JSONException {
-        int i;
-        int length = this.length();
-        if (length == 0) {
-            return "{}";
-        }
-        Iterator     keys = this.keys();
-        int          newindent = indent + indentFactor;
-        Object       object;
-        StringBuffer sb = new StringBuffer("{");
-        if (length == 1) {
-            object = keys.next();
-            sb.append(quote(object.toString()));
-            sb.append(": ");
-            sb.append(valueToString(this.map.get(object), indentFactor,
-                    indent));
-        } else {
-            while (keys.hasNext()) {
-                object = keys.next();
-                if (sb.length() > 1) {
-                    sb.append(",\n");
-                } else {
-                    sb.append('\n');
-                }
-                for (i = 0; i < newindent; i += 1) {
-                    sb.append(' ');
-                }
-                sb.append(quote(object.toString()));
-                sb.append(": ");
-                sb.append(valueToString(this.map.get(object), indentFactor,
-                        newindent));
-            }
-            if (sb.length() > 1) {
-                sb.append('\n');
-                for (i = 0; i < indent; i += 1) {
-                    sb.append(' ');
-                }
-            }
+        JSONBuffer buffer = JSONBuffer.acquire();
+        try {
+            return this.write(buffer, indentFactor, indent).toString();
+        } finally {
+            buffer.release();
         }
-        sb.append('}');
-        return sb.toString();
     }
 
 
@@ -1466,70 +1547,16 @@ public class JSONObject {
                 value instanceof JSONArray) {
             return value.toString();
         }
-        if (value instanceof Map) {
-            return new JSONObject((Map)value).toString();
-        }
-        if (value instanceof Collection) {
-            return new JSONArray((Collection)value).toString();
-        }
-        if (value.getClass().isArray()) {
-            return new JSONArray(value).toString();
-        }
-        return quote(value.toString());
-    }
-
-
-    /**
-     * Make a prettyprinted JSON text of an object value.
-     * <p>
-     * Warning: This method assumes that the data structure is acyclical.
-     * @param value The value to be serialized.
-     * @param indentFactor The number of spaces to add to each level of
-     *  indentation.
-     * @param indent The indentation of the top level.
-     * @return a printable, displayable, transmittable
-     *  representation of the object, beginning
-     *  with <code>{</code>&nbsp;<small>(left brace)</small> and ending
-     *  with <code>}</code>&nbsp;<small>(right brace)</small>.
-     * @throws JSONException If the object contains an invalid number.
-     */
-     static String valueToString(
-         Object value,
-         int    indentFactor,
-         int    indent
-     ) throws JSONException {
-        if (value == null || value.equals(null)) {
-            return "null";
-        }
-        try {
-            if (value instanceof JSONString) {
-                Object o = ((JSONString)value).toJSONString();
-                if (o instanceof String) {
-                    return (String)o;
-                }
+        if (value instanceof Map || value instanceof Collection ||
+                value.getClass().isArray()) {
+            JSONBuffer buffer = JSONBuffer.acquire();
+            try {
+                return writeValue(buffer, value).toString();
+            } catch (IOException exception) {
+                throw new JSONException(exception);
+            } finally {
+                buffer.release();
             }
-        } catch (Exception ignore) {
-        }
-        if (value instanceof Number) {
-            return numberToString((Number) value);
-        }
-        if (value instanceof Boolean) {
-            return value.toString();
-        }
-        if (value instanceof JSONObject) {
-            return ((JSONObject)value).toString(indentFactor, indent);
-        }
-        if (value instanceof JSONArray) {
-            return ((JSONArray)value).toString(indentFactor, indent);
-        }
-        if (value instanceof Map) {
-            return new JSONObject((Map)value).toString(indentFactor, indent);
-        }
-        if (value instanceof Collection) {
-            return new JSONArray((Collection)value).toString(indentFactor, indent);
-        }
-        if (value.getClass().isArray()) {
-            return new JSONArray(value).toString(indentFactor, indent);
         }
         return quote(value.toString());
     }
@@ -1571,18 +1598,13 @@ public class JSONObject {
              if (object instanceof Map) {
                  return new JSONObject((Map)object);
              }
-             Package objectPackage = object.getClass().getPackage();
-             String objectPackageName = objectPackage != null
-                 ? objectPackage.getName()
-                 : "";
-             if (
-                 objectPackageName.startsWith("java.") ||
-                 objectPackageName.startsWith("javax.") ||
-                 object.getClass().getClassLoader() == null
-             ) {
+             Accessors accessors = Accessors.forClass(object.getClass());
+             if (accessors.system) {
                  return object.toString();
              }
-             return new JSONObject(object);
+             JSONObject jo = new JSONObject();
+             jo.populateMap(object, accessors);
+             return jo;
          } catch(Exception exception) {
              return null;
          }
@@ -1609,16 +1631,9 @@ public class JSONObject {
                     writer.write(',');
                 }
                 Object key = keys.next();
-                writer.write(quote(key.toString()));
+                quote(key.toString(), writer);
                 writer.write(':');
-                Object value = this.map.get(key);
-                if (value instanceof JSONObject) {
-                    ((JSONObject)value).write(writer);
-                } else if (value instanceof JSONArray) {
-                    ((JSONArray)value).write(writer);
-                } else {
-                    writer.write(valueToString(value));
-                }
+                writeValue(writer, this.resolve(key));
                 commanate = true;
             }
             writer.write('}');
@@ -1627,4 +1642,773 @@ public class JSONObject {
             throw new JSONException(exception);
         }
      }
-}
\ No newline at end of file
+
+
+    /**
+     * Write the contents of the JSONObject as prettyprinted JSON text to a
+     * writer, in the same form as toString(indentFactor). The text is made
+     * in one pass, straight into the writer, so nested values are not first
+     * made into strings of their own.
+     * <p>
+     * Warning: This method assumes that the data structure is acyclical.
+     * @param writer The writer.
+     * @param indentFactor The number of spaces to add to each level of
+     *  indentation.
+     * @param indent The indentation of the top level.
+     * @return The writer.
+     * @throws JSONException If the object contains an invalid number.
+     */
+    public Writer write(Writer writer, int indentFactor, int indent)
+            throws JSONException {
+        try {
+            int      length = this.length();
+            Iterator keys = this.keys();
+            writer.write('{');
+            if (length == 1) {
+                Object key = keys.next();
+                quote(key.toString(), writer);
+                writer.write(": ");
+                writeValue(writer, this.resolve(key), indentFactor, indent);
+            } else if (length > 1) {
+                int newindent = indent + indentFactor;
+                boolean commanate = false;
+                while (keys.hasNext()) {
+                    Object key = keys.next();
+                    writer.write(commanate ? ",\n" : "\n");
+                    indent(writer, newindent);
+                    quote(key.toString(), writer);
+                    writer.write(": ");
+                    writeValue(writer, this.resolve(key), indentFactor,
+                            newindent);
+                    commanate = true;
+                }
+                writer.write('\n');
+                indent(writer, indent);
+            }
+            writer.write('}');
+            return writer;
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        }
+    }
+
+
+    /**
+     * Write the JSON text of a value to a writer, as valueToString would
+     * make it. Numbers are written from their digits, and a Map, Collection
+     * or array is walked in place rather than first being copied into a
+     * JSONObject or JSONArray, so no intermediate strings or containers are
+     * made for them.
+     * @param writer The writer.
+     * @param value The value to be serialized.
+     * @return The writer.
+     * @throws JSONException If the value is or contains an invalid number.
+     * @throws IOException
+     */
+    static Writer writeValue(Writer writer, Object value)
+            throws JSONException, IOException {
+        if (value == null || value.equals(null)) {
+            writer.write("null");
+        } else if (value instanceof JSONString) {
+            writer.write(valueToString(value));
+        } else if (value instanceof Number) {
+            writeNumber(writer, (Number)value);
+        } else if (value instanceof Boolean) {
+            writer.write(value.toString());
+        } else if (value instanceof JSONObject) {
+            ((JSONObject)value).write(writer);
+        } else if (value instanceof JSONArray) {
+            ((JSONArray)value).write(writer);
+        } else if (value instanceof Map) {
+            boolean commanate = false;
+            Iterator entries = ((Map)value).entrySet().iterator();
+            writer.write('{');
+            while (entries.hasNext()) {
+                Map.Entry entry = (Map.Entry)entries.next();
+                if (entry.getValue() != null) {
+                    if (commanate) {
+                        writer.write(',');
+                    }
+                    quote(entry.getKey().toString(), writer);
+                    writer.write(':');
+                    writeElement(writer, entry.getValue());
+                    commanate = true;
+                }
+            }
+            writer.write('}');
+        } else if (value instanceof Collection) {
+            Iterator elements = ((Collection)value).iterator();
+            writer.write('[');
+            while (elements.hasNext()) {
+                writeElement(writer, elements.next());
+                if (elements.hasNext()) {
+                    writer.write(',');
+                }
+            }
+            writer.write(']');
+        } else if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            writer.write('[');
+            for (int i = 0; i < length; i += 1) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeElement(writer, Array.get(value, i));
+            }
+            writer.write(']');
+        } else {
+            quote(value.toString(), writer);
+        }
+        return writer;
+    }
+
+
+    /**
+     * Write the prettyprinted JSON text of a value to a writer, as
+     * toString(indentFactor) would make it. A Map, Collection or array is
+     * walked in place.
+     * @param writer The writer.
+     * @param value The value to be serialized.
+     * @param indentFactor The number of spaces to add to each level of
+     *  indentation.
+     * @param indent The indentation of the value's own level.
+     * @return The writer.
+     * @throws JSONException If the value is or contains an invalid number.
+     * @throws IOException
+     */
+    static Writer writeValue(Writer writer, Object value, int indentFactor,
+            int indent) throws JSONException, IOException {
+        if (value == null || value.equals(null)) {
+            writer.write("null");
+            return writer;
+        }
+        if (value instanceof JSONString) {
+            Object o;
+            try {
+                o = ((JSONString)value).toJSONString();
+            } catch (Exception ignore) {
+                o = null;
+            }
+            if (o instanceof String) {
+                writer.write((String)o);
+                return writer;
+            }
+        }
+        if (value instanceof Number) {
+            writeNumber(writer, (Number)value);
+        } else if (value instanceof Boolean) {
+            writer.write(value.toString());
+        } else if (value instanceof JSONObject) {
+            ((JSONObject)value).write(writer, indentFactor, indent);
+        } else if (value instanceof JSONArray) {
+            ((JSONArray)value).write(writer, indentFactor, indent);
+        } else if (value instanceof Map) {
+            writeMap(writer, (Map)value, indentFactor, indent);
+        } else if (value instanceof Collection || value.getClass().isArray()) {
+            writeElements(writer, value, indentFactor, indent);
+        } else {
+            quote(value.toString(), writer);
+        }
+        return writer;
+    }
+
+
+    /**
+     * Write a Map as a prettyprinted JSON object, leaving out its null
+     * values as new JSONObject(map) would.
+     */
+    private static void writeMap(Writer writer, Map map, int indentFactor,
+            int indent) throws JSONException, IOException {
+        int length = 0;
+        Iterator entries = map.values().iterator();
+        while (entries.hasNext() && length < 2) {
+            if (entries.next() != null) {
+                length += 1;
+            }
+        }
+        int newindent = length == 1 ? indent : indent + indentFactor;
+        boolean commanate = false;
+        entries = map.entrySet().iterator();
+        writer.write('{');
+        while (entries.hasNext()) {
+            Map.Entry entry = (Map.Entry)entries.next();
+            if (entry.getValue() != null) {
+                if (length > 1) {
+                    writer.write(commanate ? ",\n" : "\n");
+                    indent(writer, newindent);
+                }
+                quote(entry.getKey().toString(), writer);
+                writer.write(": ");
+                writeElement(writer, entry.getValue(), indentFactor,
+                        newindent);
+                commanate = true;
+            }
+        }
+        if (length > 1) {
+            writer.write('\n');
+            indent(writer, indent);
+        }
+        writer.write('}');
+    }
+
+
+    /**
+     * Write a Collection or an array as a prettyprinted JSON array.
+     */
+    private static void writeElements(Writer writer, Object value,
+            int indentFactor, int indent) throws JSONException, IOException {
+        Iterator elements = null;
+        int      length;
+        if (value instanceof Collection) {
+            elements = ((Collection)value).iterator();
+            length = ((Collection)value).size();
+        } else {
+            length = Array.getLength(value);
+        }
+        int newindent = length == 1 ? indent : indent + indentFactor;
+        writer.write('[');
+        if (length > 1) {
+            writer.write('\n');
+        }
+        for (int i = 0; i < length; i += 1) {
+            if (i > 0) {
+                writer.write(",\n");
+            }
+            if (length > 1) {
+                indent(writer, newindent);
+            }
+            writeElement(writer, elements != null
+                    ? elements.next()
+                    : Array.get(value, i), indentFactor, newindent);
+        }
+        if (length > 1) {
+            writer.write('\n');
+            indent(writer, indent);
+        }
+        writer.write(']');
+    }
+
+
+    /**
+     * Write the given number of spaces, a run at a time.
+     */
+    static void indent(Writer writer, int spaces) throws IOException {
+        while (spaces > 0) {
+            int run = Math.min(spaces, SPACES.length());
+            writer.write(SPACES, 0, run);
+            spaces -= run;
+        }
+    }
+
+
+    /**
+     * A run of spaces for indent to write from.
+     */
+    private static final String SPACES = "                                ";
+
+
+    /**
+     * A scratch array for each thread to put the digits of a number in, so
+     * that writing a number allocates nothing.
+     */
+    private static final ThreadLocal DIGITS = new ThreadLocal() {
+        protected Object initialValue() {
+            return new char[32];
+        }
+    };
+
+
+    /**
+     * Integers of at most this magnitude are exact as doubles.
+     */
+    private static final double MAX_EXACT = 1L << 53;
+
+
+    /**
+     * Put the text of a finite double into a char array, the way
+     * numberToString makes it: the format of Double.toString, with the
+     * trailing zeros of a plain number shaved off. The digits are the
+     * fewest that read back as the same double, and of those the closest.
+     * They are found by looking for the smallest k for which d * 10^k
+     * rounds to an integer m with m / 10^k == d. Because m and 10^k are
+     * both exact as doubles, that division is exactly what reading the
+     * text back computes. Doubles that need more than 22 decimals or a
+     * 17th digit are left to Double.toString.
+     * @param d A finite double.
+     * @param chars An array of at least 32 chars.
+     * @return The number of chars, or -1 if the double was left alone.
+     */
+    static int formatDouble(double d, char[] chars) {
+        double  abs = Math.abs(d);
+        int     exponent;
+        int     k = 0;
+        int     length = 1;
+        long    m = 0;
+        int     n = 0;
+        long    q;
+
+        if (abs != 0) {
+            while (true) {
+                if (k == JSONTokener.POWERS_OF_TEN.length) {
+                    return -1;
+                }
+                double power = JSONTokener.POWERS_OF_TEN[k];
+                double scaled = abs * power;
+                if (scaled >= MAX_EXACT) {
+                    return -1;
+                }
+
+// Round the exact product, which is scaled plus the rounding error of the
+// multiplication, to the nearest integer, half to even. If that does not
+// read back, the integer on the other side may still do.
+
+                m = (long)scaled;
+                double fraction = (scaled - m) + productError(abs, power,
+                        scaled);
+                long other = m + 1;
+                if (fraction > 0.5 || (fraction == 0.5 && (m & 1) != 0)) {
+                    other = m;
+                    m += 1;
+                }
+                if (m / power == abs) {
+                    break;
+                }
+                if (other / power == abs) {
+                    m = other;
+                    break;
+                }
+                k += 1;
+            }
+            while (k > 0 && m % 10 == 0) {
+                m /= 10;
+                k -= 1;
+            }
+        }
+        for (q = m / 10; q != 0; q /= 10) {
+            length += 1;
+        }
+        if (Double.doubleToRawLongBits(d) < 0) {
+            chars[n] = '-';
+            n += 1;
+        }
+
+// Between 10^-3 and 10^7 the number is written plainly.
+
+        if (abs == 0 || (abs >= 1e-3 && abs < 1e7)) {
+            q = m;
+            if (length <= k) {
+                chars[n] = '0';
+                chars[n + 1] = '.';
+                n += 2;
+                for (int i = length; i < k; i += 1) {
+                    chars[n] = '0';
+                    n += 1;
+                }
+                k = 0;
+            }
+            int end = n + length + (k > 0 ? 1 : 0);
+            for (int i = end; i > n; ) {
+                i -= 1;
+                if (k > 0 && i == end - k - 1) {
+                    chars[i] = '.';
+                } else {
+                    chars[i] = (char)('0' + (int)(q % 10));
+                    q /= 10;
+                }
+            }
+            return end;
+        }
+
+// Otherwise it is written as d.dddE[-]n.
+
+        exponent = length - 1 - k;
+        while (m % 10 == 0) {
+            m /= 10;
+            length -= 1;
+        }
+        q = m;
+        if (length == 1) {
+            chars[n] = (char)('0' + (int)q);
+            chars[n + 1] = '.';
+            chars[n + 2] = '0';
+            n += 3;
+        } else {
+            for (int i = n + length; i > n + 1; i -= 1) {
+                chars[i] = (char)('0' + (int)(q % 10));
+                q /= 10;
+            }
+            chars[n] = (char)('0' + (int)q);
+            chars[n + 1] = '.';
+            n += length + 1;
+        }
+        chars[n] = 'E';
+        n += 1;
+        if (exponent < 0) {
+            chars[n] = '-';
+            n += 1;
+            exponent = -exponent;
+        }
+        if (exponent >= 10) {
+            chars[n] = (char)('0' + exponent / 10);
+            n += 1;
+        }
+        chars[n] = (char)('0' + exponent % 10);
+        return n + 1;
+    }
+
+
+    /**
+     * Compute the rounding error of a product of doubles, that is a * b
+     * minus product, exactly, by Dekker's method of splitting each factor
+     * into two halves whose products are exact.
+     */
+    private static double productError(double a, double b, double product) {
+        double t = a * 134217729.0;
+        double aHigh = t - (t - a);
+        double aLow = a - aHigh;
+        t = b * 134217729.0;
+        double bHigh = t - (t - b);
+        double bLow = b - bHigh;
+        return ((aHigh * bHigh - product) + aHigh * bLow + aLow * bHigh) +
+            aLow * bLow;
+    }
+
+
+    /**
+     * Write a double as numberToString would make it, without making a
+     * string of it.
+     * @param writer The writer.
+     * @param d The number.
+     * @throws JSONException If the number is not finite.
+     * @throws IOException
+     */
+    public static void writeDouble(Writer writer, double d)
+            throws JSONException, IOException {
+        if (Double.isInfinite(d) || Double.isNaN(d)) {
+            throw new JSONException(
+                "JSON does not allow non-finite numbers.");
+        }
+        char[] chars = (char[])DIGITS.get();
+        int length = formatDouble(d, chars);
+        if (length >= 0) {
+            writer.write(chars, 0, length);
+        } else {
+            writer.write(doubleToString(d));
+        }
+    }
+
+
+    /**
+     * Write the digits of a long without making a string of them.
+     * @param writer The writer.
+     * @param value The number.
+     * @throws IOException
+     */
+    public static void writeLong(Writer writer, long value) throws IOException {
+        char[] digits = (char[])DIGITS.get();
+        int    i = digits.length;
+        long   n = value < 0 ? value : -value;
+
+        do {
+            i -= 1;
+            digits[i] = (char)('0' - (int)(n % 10));
+            n /= 10;
+        } while (n != 0);
+        if (value < 0) {
+            i -= 1;
+            digits[i] = '-';
+        }
+        writer.write(digits, i, digits.length - i);
+    }
+
+
+    /**
+     * Write an element of a Map, Collection or array the way it would be
+     * written had it been wrapped into a JSONObject or JSONArray first.
+     */
+    private static void writeElement(Writer writer, Object value)
+            throws JSONException, IOException {
+        if (!(value instanceof JSONString) && (value instanceof Map ||
+                value instanceof Collection ||
+                (value != null && value.getClass().isArray()))) {
+            writeValue(writer, value);
+        } else {
+            writeValue(writer, wrap(value));
+        }
+    }
+
+
+    /**
+     * Write an element of a Map, Collection or array as prettyprinted JSON
+     * text, wrapping it as writeElement does.
+     */
+    private static void writeElement(Writer writer, Object value,
+            int indentFactor, int indent) throws JSONException, IOException {
+        if (!(value instanceof JSONString) && (value instanceof Map ||
+                value instanceof Collection ||
+                (value != null && value.getClass().isArray()))) {
+            writeValue(writer, value, indentFactor, indent);
+        } else {
+            writeValue(writer, wrap(value), indentFactor, indent);
+        }
+    }
+
+
+    /**
+     * Write a number as numberToString would make it. The integer types
+     * and doubles are written straight from their digits.
+     */
+    private static void writeNumber(Writer writer, Number number)
+            throws JSONException, IOException {
+        if (number instanceof Integer || number instanceof Long ||
+                number instanceof Short || number instanceof Byte) {
+            writeLong(writer, number.longValue());
+        } else if (number instanceof Double) {
+            writeDouble(writer, number.doubleValue());
+        } else {
+            writer.write(numberToString(number));
+        }
+    }
+
+
+    /**
+     * What reflection finds out about a class for wrap and populateMap,
+     * worked out once per class: whether it is a system class, whose
+     * objects wrap turns into strings, and its bean getters with the keys
+     * they go under, in the order getMethods returns them.
+     */
+    private static final class Accessors {
+
+        /**
+         * The accessors of each class seen so far. The classes are held
+         * weakly, and the accessors softly because their Methods refer back
+         * to the class, so that neither keeps a class from being unloaded.
+         */
+        private static final Map CACHE = new WeakHashMap();
+
+        final Method[] getters;
+        final String[] keys;
+        final boolean system;
+
+        private Accessors(Class klass) {
+            Package objectPackage = klass.getPackage();
+            String objectPackageName = objectPackage != null
+                ? objectPackage.getName()
+                : "";
+            this.system = objectPackageName.startsWith("java.") ||
+                objectPackageName.startsWith("javax.") ||
+                klass.getClassLoader() == null;
+
+// If klass is a System class then set includeSuperClass to false.
+
+            boolean includeSuperClass = klass.getClassLoader() != null;
+
+            Method[] methods = includeSuperClass
+                    ? klass.getMethods()
+                    : klass.getDeclaredMethods();
+            ArrayList getters = new ArrayList();
+            ArrayList keys = new ArrayList();
+            for (int i = 0; i < methods.length; i += 1) {
+                Method method = methods[i];
+                if (Modifier.isPublic(method.getModifiers())) {
+                    String name = method.getName();
+                    String key = "";
+                    if (name.startsWith("get")) {
+                        if (name.equals("getClass") ||
+                                name.equals("getDeclaringClass")) {
+                            key = "";
+                        } else {
+                            key = name.substring(3);
+                        }
+                    } else if (name.startsWith("is")) {
+                        key = name.substring(2);
+                    }
+                    if (key.length() > 0 &&
+                            Character.isUpperCase(key.charAt(0)) &&
+                            method.getParameterTypes().length == 0) {
+                        if (key.length() == 1) {
+                            key = key.toLowerCase();
+                        } else if (!Character.isUpperCase(key.charAt(1))) {
+                            key = key.substring(0, 1).toLowerCase() +
+                                key.substring(1);
+                        }
+                        getters.add(method);
+                        keys.add(key);
+                    }
+                }
+            }
+            this.getters =
+                (Method[])getters.toArray(new Method[getters.size()]);
+            this.keys = (String[])keys.toArray(new String[keys.size()]);
+        }
+
+        /**
+         * Get the accessors of a class, working them out if this is the
+         * first time the class is seen.
+         */
+        static Accessors forClass(Class klass) {
+            Accessors accessors = null;
+            synchronized (CACHE) {
+                SoftReference reference = (SoftReference)CACHE.get(klass);
+                if (reference != null) {
+                    accessors = (Accessors)reference.get();
+                }
+            }
+            if (accessors == null) {
+                accessors = new Accessors(klass);
+                synchronized (CACHE) {
+                    CACHE.put(klass, new SoftReference(accessors));
+                }
+            }
+            return accessors;
+        }
+    }
+
+
+    /**
+     * The members of a JSONObject. Up to SMALL_LIMIT members are kept in a
+     * flat array of alternating keys and values that is searched linearly,
+     * which is much smaller than a HashMap with its table and entry objects,
+     * and no slower for so few keys. Past that the members move into a
+     * HashMap. Small objects keep their keys in insertion order. Frozen
+     * members refuse every change.
+     */
+    private static final class Members {
+        private static final int SMALL_LIMIT = 8;
+
+        private boolean frozen;
+        private HashMap hashMap;
+        private int size;
+        private Object[] table;
+
+        boolean containsKey(Object key) {
+            return this.hashMap != null
+                ? this.hashMap.containsKey(key)
+                : this.indexOf(key) >= 0;
+        }
+
+        Object get(Object key) {
+            if (this.hashMap != null) {
+                return this.hashMap.get(key);
+            }
+            int i = this.indexOf(key);
+            return i >= 0 ? this.table[i + 1] : null;
+        }
+
+        /**
+         * Get an iterator of the keys. Its remove method removes a member.
+         */
+        Iterator keys() {
+            if (this.hashMap != null) {
+                return this.frozen
+                    ? Collections.unmodifiableSet(this.hashMap.keySet())
+                        .iterator()
+                    : this.hashMap.keySet().iterator();
+            }
+            return new Iterator() {
+                private int next = 0;
+
+                public boolean hasNext() {
+                    return Members.this.hashMap == null &&
+                        this.next < Members.this.size * 2;
+                }
+
+                public Object next() {
+                    if (!this.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    this.next += 2;
+                    return Members.this.table[this.next - 2];
+                }
+
+                public void remove() {
+                    if (this.next == 0) {
+                        throw new IllegalStateException();
+                    }
+                    this.next -= 2;
+                    Members.this.removeAt(this.next);
+                }
+            };
+        }
+
+        void put(Object key, Object value) {
+            this.thawed();
+            if (this.hashMap != null) {
+                this.hashMap.put(key, value);
+                return;
+            }
+            int i = this.indexOf(key);
+            if (i >= 0) {
+                this.table[i + 1] = value;
+                return;
+            }
+            if (this.size == SMALL_LIMIT) {
+                this.hashMap = new HashMap();
+                for (i = 0; i < this.size * 2; i += 2) {
+                    this.hashMap.put(this.table[i], this.table[i + 1]);
+                }
+                this.hashMap.put(key, value);
+                this.table = null;
+                this.size = 0;
+                return;
+            }
+            if (this.table == null) {
+                this.table = new Object[8];
+            } else if (this.size * 2 == this.table.length) {
+                Object[] grown = new Object[this.table.length * 2];
+                System.arraycopy(this.table, 0, grown, 0, this.table.length);
+                this.table = grown;
+            }
+            this.table[this.size * 2] = key;
+            this.table[this.size * 2 + 1] = value;
+            this.size += 1;
+        }
+
+        Object remove(Object key) {
+            this.thawed();
+            if (this.hashMap != null) {
+                return this.hashMap.remove(key);
+            }
+            int i = this.indexOf(key);
+            if (i < 0) {
+                return null;
+            }
+            Object value = this.table[i + 1];
+            this.removeAt(i);
+            return value;
+        }
+
+        int size() {
+            return this.hashMap != null ? this.hashMap.size() : this.size;
+        }
+
+        /**
+         * Make sure that the members may be changed.
+         */
+        private void thawed() {
+            if (this.frozen) {
+                throw new UnsupportedOperationException(
+                        "JSONObject is frozen.");
+            }
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < this.size * 2; i += 2) {
+                Object k = this.table[i];
+                if (k == key || (k != null && k.equals(key))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void removeAt(int i) {
+            this.thawed();
+            this.size -= 1;
+            System.arraycopy(this.table, i + 2, this.table, i,
+                    this.size * 2 - i);
+            this.table[this.size * 2] = null;
+            this.table[this.size * 2 + 1] = null;
+        }
+    }
+}
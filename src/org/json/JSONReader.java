@@ -0,0 +1,529 @@
+package org.json;
+
+import java.io.Reader;
+
+/**
+ * JSONReader reads JSON text one token at a time, without building a
+ * JSONObject or JSONArray. It is the reading counterpart of JSONWriter.
+ * Because only the current nesting is remembered, a document of any size
+ * can be read in constant memory when the source is a Reader.
+ * <p>
+ * The <code>peek</code> method tells what the next token is. There are
+ * <code>beginObject</code>, <code>nextName</code> and <code>endObject</code>
+ * methods for objects, <code>beginArray</code> and <code>endArray</code>
+ * methods for arrays, and <code>nextString</code>, <code>nextDouble</code>,
+ * <code>nextLong</code>, <code>nextInt</code>, <code>nextBoolean</code> and
+ * <code>nextNull</code> methods for values. <code>skipValue</code> passes
+ * over a value, including any objects or arrays within it, and
+ * <code>nextToken</code> consumes whatever comes next. For example, <pre>
+ * JSONReader reader = new JSONReader(myReader);
+ * reader.beginArray();
+ * while (reader.hasNext()) {
+ *     reader.beginObject();
+ *     while (reader.hasNext()) {
+ *         if (reader.nextName().equals("lux")) {
+ *             sum += reader.nextDouble();
+ *         } else {
+ *             reader.skipValue();
+ *         }
+ *     }
+ *     reader.endObject();
+ * }
+ * reader.endArray();</pre>
+ * <p>
+ * JSONReader accepts the same text as the JSONObject and JSONArray
+ * constructors, including their non-standard forms. Several values may
+ * follow each other at the top level, as in a file with a document per
+ * line.
+ */
+public class JSONReader {
+
+    /**
+     * The token kinds returned by peek and nextToken.
+     */
+    public static final int BEGIN_ARRAY = 1;
+    public static final int END_ARRAY = 2;
+    public static final int BEGIN_OBJECT = 3;
+    public static final int END_OBJECT = 4;
+    public static final int NAME = 5;
+    public static final int STRING = 6;
+    public static final int NUMBER = 7;
+    public static final int BOOLEAN = 8;
+    public static final int NULL = 9;
+    public static final int END_DOCUMENT = 10;
+
+    /**
+     * The scope modes kept on the stack. Values:
+     * 'd' (document),
+     * '[' (array before its first element),
+     * 'a' (array),
+     * '{' (object before its first key),
+     * 'k' (object after a key),
+     * 'o' (object after a value).
+     */
+    private char[] stack;
+
+    /**
+     * The stack top index. A value of 0 indicates that the stack is empty.
+     */
+    private int top;
+
+    /**
+     * The kind of the next token if it has already been looked at, or 0.
+     */
+    private int peeked;
+
+    /**
+     * The name or value of the peeked token, or of the token last consumed
+     * by nextToken.
+     */
+    private Object value;
+
+    /**
+     * The tokenizer that supplies the characters.
+     */
+    private final JSONTokener x;
+
+
+    /**
+     * Construct a JSONReader that reads from a JSONTokener.
+     * @param x A JSONTokener.
+     */
+    public JSONReader(JSONTokener x) {
+        this.x = x;
+        this.stack = new char[32];
+        this.stack[0] = 'd';
+        this.top = 1;
+        this.peeked = 0;
+    }
+
+
+    /**
+     * Construct a JSONReader that reads from a Reader.
+     * @param reader A reader.
+     */
+    public JSONReader(Reader reader) {
+        this(new JSONTokener(reader));
+    }
+
+
+    /**
+     * Consume the start of an array.
+     * @throws JSONException If the next token is not the start of an array.
+     */
+    public void beginArray() throws JSONException {
+        this.expect(BEGIN_ARRAY, "Expected '['");
+        this.push('[');
+    }
+
+
+    /**
+     * Consume the start of an object.
+     * @throws JSONException If the next token is not the start of an object.
+     */
+    public void beginObject() throws JSONException {
+        this.expect(BEGIN_OBJECT, "Expected '{'");
+        this.push('{');
+    }
+
+
+    /**
+     * Consume the end of an array.
+     * @throws JSONException If the next token is not the end of an array.
+     */
+    public void endArray() throws JSONException {
+        this.expect(END_ARRAY, "Expected ']'");
+        this.top -= 1;
+    }
+
+
+    /**
+     * Consume the end of an object.
+     * @throws JSONException If the next token is not the end of an object.
+     */
+    public void endObject() throws JSONException {
+        this.expect(END_OBJECT, "Expected '}'");
+        this.top -= 1;
+    }
+
+
+    /**
+     * Get the name or value of the token most recently consumed by
+     * nextToken. This is a String for a name, and a Boolean, Double,
+     * Integer, Long, String, or the JSONObject.NULL object for a value.
+     * @return The value, or null if the token had none.
+     */
+    public Object getValue() {
+        return this.value;
+    }
+
+
+    /**
+     * Determine if the current array or object has another element.
+     * @return true if the next token is not the end of an array, an object
+     *  or the document.
+     * @throws JSONException If there is a syntax error.
+     */
+    public boolean hasNext() throws JSONException {
+        int kind = this.peek();
+        return kind != END_ARRAY && kind != END_OBJECT && kind != END_DOCUMENT;
+    }
+
+
+    /**
+     * Consume a boolean value. The strings "true" and "false" are accepted
+     * too.
+     * @return The truth.
+     * @throws JSONException If the next token is not a boolean.
+     */
+    public boolean nextBoolean() throws JSONException {
+        Object object = this.nextScalar();
+        if (object.equals(Boolean.FALSE) ||
+                (object instanceof String &&
+                ((String)object).equalsIgnoreCase("false"))) {
+            return false;
+        } else if (object.equals(Boolean.TRUE) ||
+                (object instanceof String &&
+                ((String)object).equalsIgnoreCase("true"))) {
+            return true;
+        }
+        throw this.x.syntaxError("Expected a Boolean");
+    }
+
+
+    /**
+     * Consume a numeric value as a double. A string holding a number is
+     * accepted too.
+     * @return The numeric value.
+     * @throws JSONException If the next token is not a number.
+     */
+    public double nextDouble() throws JSONException {
+        Object object = this.nextScalar();
+        try {
+            return object instanceof Number
+                ? ((Number)object).doubleValue()
+                : Double.parseDouble((String)object);
+        } catch (Exception e) {
+            throw this.x.syntaxError("Expected a number");
+        }
+    }
+
+
+    /**
+     * Consume a numeric value as an int. A string holding a number is
+     * accepted too.
+     * @return The integer value.
+     * @throws JSONException If the next token is not an int.
+     */
+    public int nextInt() throws JSONException {
+        Object object = this.nextScalar();
+        try {
+            return object instanceof Number
+                ? ((Number)object).intValue()
+                : Integer.parseInt((String)object);
+        } catch (Exception e) {
+            throw this.x.syntaxError("Expected an int");
+        }
+    }
+
+
+    /**
+     * Consume a numeric value as a long. A string holding a number is
+     * accepted too.
+     * @return The long value.
+     * @throws JSONException If the next token is not a long.
+     */
+    public long nextLong() throws JSONException {
+        Object object = this.nextScalar();
+        try {
+            return object instanceof Number
+                ? ((Number)object).longValue()
+                : Long.parseLong((String)object);
+        } catch (Exception e) {
+            throw this.x.syntaxError("Expected a long");
+        }
+    }
+
+
+    /**
+     * Consume the name of an object member.
+     * @return The name.
+     * @throws JSONException If the next token is not a name.
+     */
+    public String nextName() throws JSONException {
+        this.expect(NAME, "Expected a key");
+        return (String)this.value;
+    }
+
+
+    /**
+     * Consume a null value.
+     * @throws JSONException If the next token is not null.
+     */
+    public void nextNull() throws JSONException {
+        this.expect(NULL, "Expected null");
+    }
+
+
+    /**
+     * Consume a string value.
+     * @return The string.
+     * @throws JSONException If the next token is not a string.
+     */
+    public String nextString() throws JSONException {
+        this.expect(STRING, "Expected a string");
+        return (String)this.value;
+    }
+
+
+    /**
+     * Consume the next token, whatever it is. The name or value of the
+     * token can then be had from getValue. The end of the document is not
+     * consumed, so it is returned again by later calls.
+     * @return The kind of token that was consumed.
+     * @throws JSONException If there is a syntax error.
+     */
+    public int nextToken() throws JSONException {
+        int kind = this.peek();
+        switch (kind) {
+        case BEGIN_ARRAY:
+            this.beginArray();
+            this.value = null;
+            break;
+        case BEGIN_OBJECT:
+            this.beginObject();
+            this.value = null;
+            break;
+        case END_ARRAY:
+        case END_OBJECT:
+            this.peeked = 0;
+            this.top -= 1;
+            this.value = null;
+            break;
+        case END_DOCUMENT:
+            this.value = null;
+            break;
+        default:
+            this.peeked = 0;
+        }
+        return kind;
+    }
+
+
+    /**
+     * Determine the kind of the next token without consuming it.
+     * @return One of BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT,
+     *  NAME, STRING, NUMBER, BOOLEAN, NULL, or END_DOCUMENT.
+     * @throws JSONException If there is a syntax error.
+     */
+    public int peek() throws JSONException {
+        if (this.peeked != 0) {
+            return this.peeked;
+        }
+        char c;
+        switch (this.stack[this.top - 1]) {
+        case 'd':
+            if (this.x.nextClean() == 0) {
+                return END_DOCUMENT;
+            }
+            this.x.back();
+            return this.peekValue();
+        case '[':
+            this.stack[this.top - 1] = 'a';
+            if (this.x.nextClean() == ']') {
+                return this.peeked = END_ARRAY;
+            }
+            this.x.back();
+            return this.peekElement();
+        case 'a':
+            switch (this.x.nextClean()) {
+            case ';':
+            case ',':
+                if (this.x.nextClean() == ']') {
+                    return this.peeked = END_ARRAY;
+                }
+                this.x.back();
+                return this.peekElement();
+            case ']':
+                return this.peeked = END_ARRAY;
+            default:
+                throw this.x.syntaxError("Expected a ',' or ']'");
+            }
+        case 'o':
+            switch (this.x.nextClean()) {
+            case ';':
+            case ',':
+                return this.peekKey();
+            case '}':
+                return this.peeked = END_OBJECT;
+            default:
+                throw this.x.syntaxError("Expected a ',' or '}'");
+            }
+        case '{':
+            return this.peekKey();
+        default:
+
+// The key is followed by ':'. We will also tolerate '=' or '=>'.
+
+            c = this.x.nextClean();
+            if (c == '=') {
+                if (this.x.next() != '>') {
+                    this.x.back();
+                }
+            } else if (c != ':') {
+                throw this.x.syntaxError("Expected a ':' after a key");
+            }
+            this.stack[this.top - 1] = 'o';
+            return this.peekValue();
+        }
+    }
+
+
+    /**
+     * Skip the next value, including everything within it if it is an
+     * object or an array. If the next token is a name, the name and its
+     * value are skipped.
+     * @throws JSONException If there is no value to skip.
+     */
+    public void skipValue() throws JSONException {
+        int kind = this.peek();
+        if (kind == NAME) {
+            this.nextToken();
+            kind = this.peek();
+        }
+        if (kind == END_ARRAY || kind == END_OBJECT || kind == END_DOCUMENT) {
+            throw this.x.syntaxError("Expected a value");
+        }
+        int depth = this.top;
+        do {
+            this.nextToken();
+        } while (this.top > depth);
+    }
+
+
+    /**
+     * Make a printable string of this JSONReader, showing the position in
+     * the source.
+     * @return " at {index} [character {character} line {line}]"
+     */
+    public String toString() {
+        return this.x.toString();
+    }
+
+
+    /**
+     * Make a JSONException to signal a syntax error at the current
+     * position.
+     * @param message The error message.
+     * @return A JSONException object, suitable for throwing
+     */
+    JSONException syntaxError(String message) {
+        return this.x.syntaxError(message);
+    }
+
+
+    /**
+     * Consume the peeked token if it is of the expected kind.
+     * @param kind The expected kind of token.
+     * @param message The error message if it is not.
+     * @throws JSONException If the next token is of another kind.
+     */
+    private void expect(int kind, String message) throws JSONException {
+        if (this.peek() != kind) {
+            throw this.x.syntaxError(message);
+        }
+        this.peeked = 0;
+    }
+
+
+    /**
+     * Consume a value that is not an object or an array.
+     * @return The value.
+     * @throws JSONException If the next token is not such a value.
+     */
+    private Object nextScalar() throws JSONException {
+        int kind = this.peek();
+        if (kind < STRING || kind > NULL) {
+            throw this.x.syntaxError("Expected a value");
+        }
+        this.peeked = 0;
+        return this.value;
+    }
+
+
+    /**
+     * Look at the next key of an object, after its opening brace or after
+     * a comma, or at the end of the object.
+     */
+    private int peekKey() throws JSONException {
+        switch (this.x.nextClean()) {
+        case 0:
+            throw this.x.syntaxError("A JSONObject text must end with '}'");
+        case '}':
+            return this.peeked = END_OBJECT;
+        default:
+            this.x.back();
+            this.value = this.x.nextKey();
+            this.stack[this.top - 1] = 'k';
+            return this.peeked = NAME;
+        }
+    }
+
+
+    /**
+     * Look at an array element. An empty element is taken as null, as it
+     * is by the JSONArray constructor.
+     */
+    private int peekElement() throws JSONException {
+        if (this.x.nextClean() == ',') {
+            this.x.back();
+            this.value = JSONObject.NULL;
+            return this.peeked = NULL;
+        }
+        this.x.back();
+        return this.peekValue();
+    }
+
+
+    /**
+     * Look at a value. Objects and arrays are not read; the opening
+     * bracket is consumed and the rest is left for the caller to walk.
+     */
+    private int peekValue() throws JSONException {
+        switch (this.x.nextClean()) {
+        case '{':
+            this.value = null;
+            return this.peeked = BEGIN_OBJECT;
+        case '[':
+            this.value = null;
+            return this.peeked = BEGIN_ARRAY;
+        }
+        this.x.back();
+        this.value = this.x.nextValue();
+        if (this.value instanceof String) {
+            this.peeked = STRING;
+        } else if (this.value instanceof Boolean) {
+            this.peeked = BOOLEAN;
+        } else if (this.value == JSONObject.NULL) {
+            this.peeked = NULL;
+        } else {
+            this.peeked = NUMBER;
+        }
+        return this.peeked;
+    }
+
+
+    /**
+     * Push an array or object scope.
+     * @param mode '[' or '{'.
+     */
+    private void push(char mode) {
+        if (this.top == this.stack.length) {
+            char[] grown = new char[this.stack.length * 2];
+            System.arraycopy(this.stack, 0, grown, 0, this.top);
+            this.stack = grown;
+        }
+        this.stack[this.top] = mode;
+        this.top += 1;
+    }
+}
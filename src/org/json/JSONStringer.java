@@ -24,8 +24,6 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
 */
 
-import java.io.StringWriter;
-
 /**
  * JSONStringer provides a quick and convenient way of producing JSON text.
  * The texts produced strictly conform to JSON syntax rules. No whitespace is
@@ -57,11 +55,17 @@ import java.io.StringWriter;
  * @version 2008-09-18
  */
 public class JSONStringer extends JSONWriter {
+    /**
+     * The finished text, kept once the buffer has been given back.
+     */
+    private String text;
+
     /**
      * Make a fresh JSONStringer. It can be used to build one JSON text.
+     * It writes into this thread's pooled buffer when that is free.
      */
     public JSONStringer() {
-        super(new StringWriter());
+        super(JSONBuffer.acquire());
     }
 
     /**
@@ -73,6 +77,13 @@ public class JSONStringer extends JSONWriter {
      * @return The JSON text.
      */
     public String toString() {
-        return this.mode == 'd' ? this.writer.toString() : null;
+        if (this.mode != 'd') {
+            return null;
+        }
+        if (this.text == null) {
+            this.text = this.writer.toString();
+            ((JSONBuffer)this.writer).release();
+        }
+        return this.text;
     }
 }
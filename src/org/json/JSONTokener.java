@@ -1,11 +1,12 @@
 package org.json;
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /*
 Copyright (c) 2002 JSON.org
@@ -40,38 +41,144 @@ SOFTWARE.
  */
 public class JSONTokener {
 
-    private int 	character;
-	private boolean eof;
-    private int 	index;
-    private int 	line;
-    private char 	previous;
-    private final Reader 	reader;
+    /**
+     * The number of characters read from a Reader at a time.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The number of bytes of a file that are mapped at a time.
+     */
+    private static final int MAP_WINDOW = 1 << 26;
+
+    /**
+     * The number of slots in the symbol table. A power of two.
+     */
+    private static final int SYMBOL_TABLE_SIZE = 256;
+
+    /**
+     * Keys longer than this are not put in the symbol table.
+     */
+    private static final int MAX_SYMBOL_LENGTH = 64;
+
+    /**
+     * The characters that end an unquoted value, indexed by character.
+     */
+    private static final boolean[] DELIMITERS = new boolean[128];
+
+    static {
+        String delimiters = ",:]}/\\\"[{;=#";
+        for (int i = 0; i < delimiters.length(); i += 1) {
+            DELIMITERS[delimiters.charAt(i)] = true;
+        }
+    }
+
+    private char[]  buffer;
+    private ByteBuffer bytes;
+    private FileChannel channel;
+    private boolean eof;
+    private final boolean lazy;
+    private int     limit;
+    private int     line;
+    private int     lineScanned;
+    private long    lineStart;
+    private int     mark;
+    private long    mapped;
+    private long    offset;
+    private int     position;
+    private final Reader reader;
+    private boolean returnPending;
+    private InputStream stream;
+    private String[] symbols;
     private boolean usePrevious;
 
 
     /**
-     * Construct a JSONTokener from a Reader.
+     * Construct a JSONTokener from a Reader. The reader is read in bulk
+     * into an internal buffer, so it does not need to be buffered.
      *
      * @param reader     A reader.
      */
     public JSONTokener(Reader reader) {
-        this.reader = reader.markSupported()
-            ? reader
-            : new BufferedReader(reader);
-        this.eof = false;
-        this.usePrevious = false;
-        this.previous = 0;
-        this.index = 0;
-        this.character = 1;
-        this.line = 1;
+        this(reader, null, null);
     }
 
 
     /**
-     * Construct a JSONTokener from an InputStream.
+     * Construct a JSONTokener from an InputStream of UTF-8 text. The bytes
+     * are decoded straight into the tokenizer's buffer, without a Reader.
      */
     public JSONTokener(InputStream inputStream) throws JSONException {
-        this(new InputStreamReader(inputStream));
+        this(null, ByteBuffer.wrap(new byte[BUFFER_SIZE], 0, 0),
+                inputStream);
+    }
+
+
+    /**
+     * Construct a JSONTokener from an array of UTF-8 bytes.
+     *
+     * @param bytes     The UTF-8 source.
+     */
+    public JSONTokener(byte[] bytes) {
+        this(null, ByteBuffer.wrap(bytes), null);
+    }
+
+
+    /**
+     * Construct a JSONTokener from the remaining UTF-8 bytes of a
+     * ByteBuffer. The position of the ByteBuffer is not changed.
+     *
+     * @param bytes     The UTF-8 source.
+     */
+    public JSONTokener(ByteBuffer bytes) {
+        this(null, bytes.duplicate(), null);
+    }
+
+
+    /**
+     * Construct a JSONTokener from a file of UTF-8 text. The file is mapped
+     * into memory a window at a time and decoded from there, so it is never
+     * copied onto the heap, and files larger than 2 GB can be read. The
+     * file is closed as soon as its last window is mapped, which for a file
+     * of up to 64 MB is before this constructor returns. A tokener that is
+     * given up before the end of a larger file, for instance after a syntax
+     * error, should be closed with <code>close</code>.
+     *
+     * @param file      The UTF-8 source.
+     * @throws JSONException If the file cannot be opened or mapped.
+     */
+    public JSONTokener(File file) throws JSONException {
+        this(null, ByteBuffer.allocate(0), null);
+        try {
+            this.channel = new FileInputStream(file).getChannel();
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        }
+        try {
+            this.map();
+        } catch (JSONException exception) {
+            this.close();
+            throw exception;
+        }
+    }
+
+
+    /**
+     * Construct a JSONTokener that reads characters from a Reader, or
+     * UTF-8 bytes from a ByteBuffer that is refilled from an InputStream.
+     */
+    private JSONTokener(Reader reader, ByteBuffer bytes, InputStream stream) {
+        this.reader = reader;
+        this.bytes = bytes;
+        this.stream = stream;
+        this.lazy = false;
+        this.buffer = new char[BUFFER_SIZE];
+        this.limit = 0;
+        this.eof = false;
+        this.usePrevious = false;
+        this.mark = -1;
+        this.line = 1;
+        this.lineStart = -1;
     }
 
 
@@ -81,7 +188,52 @@ public class JSONTokener {
      * @param s     A source string.
      */
     public JSONTokener(String s) {
-        this(new StringReader(s));
+        this(s, false);
+    }
+
+
+    /**
+     * Construct a JSONTokener from a string, optionally in lazy mode. In
+     * lazy mode the JSONObjects and JSONArrays it makes only keep where each
+     * value starts and ends in one shared copy of the source, so an
+     * undecoded value keeps that copy alive. A value is decoded the
+     * first time it is asked for, so untouched parts of a large document are
+     * skipped without being built. Syntax errors inside a value are reported when
+     * the value is first decoded, by get or the write and toString methods;
+     * opt returns null for such a value.
+     *
+     * @param s     A source string.
+     * @param lazy  true to defer decoding of values.
+     */
+    public JSONTokener(String s, boolean lazy) {
+        this(s.toCharArray(), lazy, 0, s.length(), 1, -1);
+    }
+
+
+    /**
+     * Construct a JSONTokener over a part of a source held in memory. The
+     * source is shared, not copied, and positions in errors are relative
+     * to the whole source.
+     * @param source    The characters of the source.
+     * @param lazy      true to defer decoding of values.
+     * @param start     The index of the part in the source.
+     * @param end       The index after the part.
+     * @param line      The line the part starts on.
+     * @param lineStart The index in the source of the start of that line.
+     */
+    private JSONTokener(char[] source, boolean lazy, int start, int end,
+            int line, long lineStart) {
+        this.reader = null;
+        this.lazy = lazy;
+        this.buffer = source;
+        this.position = start;
+        this.limit = end;
+        this.lineScanned = start;
+        this.eof = false;
+        this.usePrevious = false;
+        this.mark = -1;
+        this.line = line;
+        this.lineStart = lineStart;
     }
 
 
@@ -91,16 +243,50 @@ public class JSONTokener {
      * the next number or identifier.
      */
     public void back() throws JSONException {
-        if (this.usePrevious || this.index <= 0) {
+        if (this.usePrevious || this.offset + this.position <= 0) {
             throw new JSONException("Stepping back two steps is not supported");
         }
-        this.index -= 1;
-        this.character -= 1;
+        this.position -= 1;
         this.usePrevious = true;
         this.eof = false;
     }
 
 
+    /**
+     * Count the line breaks in the buffer up to a position, so that
+     * syntax errors can report a line and character.
+     * @param end The buffer position to count up to.
+     */
+    private void countLines(int end) {
+        for (int i = this.lineScanned; i < end; i += 1) {
+            this.countLine(i);
+        }
+        if (end > this.lineScanned) {
+            this.lineScanned = end;
+        }
+    }
+
+
+    /**
+     * Count a line break at a character that has been read. A '\n' ends a
+     * line, and so does a '\r' that is not followed by one, once the
+     * character after it is read.
+     * @param i The buffer index of the character.
+     */
+    private void countLine(int i) {
+        char c = this.buffer[i];
+        if (this.returnPending && c != '\n') {
+            this.line += 1;
+            this.lineStart = this.offset + i;
+        }
+        if (c == '\n') {
+            this.line += 1;
+            this.lineStart = this.offset + i + 1;
+        }
+        this.returnPending = c == '\r';
+    }
+
+
     /**
      * Get the hex value of a character (base16).
      * @param c A character between '0' and '9' or between 'A' and 'F' or
@@ -125,6 +311,227 @@ public class JSONTokener {
     }
 
 
+    /**
+     * Decode UTF-8 bytes into the buffer after the limit. Runs of ASCII
+     * are copied a byte at a time with no further checks. A multi-byte
+     * sequence that is cut off by the end of the bytes is left for the
+     * next call unless no more bytes can come. Malformed sequences are
+     * replaced with U+FFFD.
+     * @return The number of characters decoded.
+     */
+    private int decode() {
+        ByteBuffer in = this.bytes;
+        char[] out = this.buffer;
+        int n = this.limit;
+        int p = in.position();
+        int end = in.limit();
+        while (n < out.length && p < end) {
+            int b = in.get(p);
+            if (b >= 0) {
+                out[n] = (char)b;
+                n += 1;
+                p += 1;
+                continue;
+            }
+            int need;
+            int low = 0x80;
+            int high = 0xBF;
+            if (b >= (byte)0xC2 && b <= (byte)0xDF) {
+                need = 1;
+            } else if (b >= (byte)0xE0 && b <= (byte)0xEF) {
+                need = 2;
+                if (b == (byte)0xE0) {
+                    low = 0xA0;
+                }
+            } else if (b >= (byte)0xF0 && b <= (byte)0xF4) {
+                need = 3;
+                if (b == (byte)0xF0) {
+                    low = 0x90;
+                } else if (b == (byte)0xF4) {
+                    high = 0x8F;
+                }
+            } else {
+                need = 0;
+            }
+            if (need > 0 && p + need >= end &&
+                    (this.stream != null || this.channel != null)) {
+                break;
+            }
+
+// The second byte's range rules out overlong forms and code points past
+// U+10FFFF. A bad sequence is replaced up to the first byte that does not
+// fit. An encoded surrogate is replaced as a whole.
+
+            int c = b & (0x3F >> need);
+            int length = 1;
+            while (length <= need && p + length < end) {
+                int d = in.get(p + length) & 0xFF;
+                if (d < low || d > high) {
+                    break;
+                }
+                c = (c << 6) | (d & 0x3F);
+                length += 1;
+                low = 0x80;
+                high = 0xBF;
+            }
+            if (need == 0 || length <= need) {
+                out[n] = '\uFFFD';
+                n += 1;
+                p += length;
+            } else if (c >= 0xD800 && c <= 0xDFFF) {
+                out[n] = '\uFFFD';
+                n += 1;
+                p += need + 1;
+            } else if (c < 0x10000) {
+                out[n] = (char)c;
+                n += 1;
+                p += need + 1;
+            } else if (n + 1 < out.length) {
+                out[n] = (char)(0xD7C0 + (c >> 10));
+                out[n + 1] = (char)(0xDC00 | (c & 0x3FF));
+                n += 2;
+                p += need + 1;
+            } else {
+                break;
+            }
+        }
+        in.position(p);
+        return n - this.limit;
+    }
+
+
+    /**
+     * Read the next window of characters from the reader or the bytes. The
+     * character before the current position is kept so that back() still
+     * works, as is everything from the mark onwards when a mark is set. The
+     * buffer grows if nothing can be discarded.
+     * @return true if more characters are available.
+     */
+    private boolean fill() throws JSONException {
+        if (this.reader == null && this.bytes == null) {
+            return false;
+        }
+        int keep = this.position > 0 ? this.position - 1 : 0;
+        if (this.mark >= 0 && this.mark < keep) {
+            keep = this.mark;
+        }
+        if (keep > 0) {
+            this.countLines(keep);
+            System.arraycopy(this.buffer, keep, this.buffer, 0,
+                    this.limit - keep);
+            this.offset += keep;
+            this.position -= keep;
+            this.limit -= keep;
+            this.lineScanned -= keep;
+            if (this.mark >= 0) {
+                this.mark -= keep;
+            }
+        }
+        if (this.buffer.length - this.limit < 2) {
+            char[] grown = new char[this.buffer.length * 2];
+            System.arraycopy(this.buffer, 0, grown, 0, this.limit);
+            this.buffer = grown;
+        }
+        int read;
+        if (this.reader == null) {
+            read = this.decode();
+            while (read == 0 && this.refill()) {
+                read = this.decode();
+            }
+        } else {
+            try {
+                read = this.reader.read(this.buffer, this.limit,
+                        this.buffer.length - this.limit);
+            } catch (IOException exception) {
+                throw new JSONException(exception);
+            }
+        }
+        if (read <= 0) {
+            return false;
+        }
+        this.limit += read;
+        return true;
+    }
+
+
+    /**
+     * Map the next window of the file, starting at the first byte not yet
+     * decoded. The file is closed as soon as its last window is mapped; a
+     * mapping stays valid after its channel is closed.
+     * @return true if there are bytes left to decode.
+     */
+    private boolean map() throws JSONException {
+        try {
+            long size = this.channel.size();
+            long start = this.mapped + this.bytes.position();
+            long length = Math.min(MAP_WINDOW, size - start);
+            if (length > 0) {
+                this.bytes = this.channel.map(FileChannel.MapMode.READ_ONLY,
+                        start, length);
+                this.mapped = start;
+            }
+            if (start + length >= size) {
+                this.close();
+            }
+            return this.bytes.hasRemaining();
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        }
+    }
+
+
+    /**
+     * Close the file this tokener reads from, if it is still open. A file is
+     * closed on its own once its last window is mapped, so this is only
+     * needed when reading stops early in a file larger than a window. The
+     * tokener cannot read past the bytes already mapped after it is closed.
+     * Calling this method more than once has no effect.
+     * @throws JSONException If the file cannot be closed.
+     */
+    public void close() throws JSONException {
+        FileChannel channel = this.channel;
+        if (channel != null) {
+            this.channel = null;
+            try {
+                channel.close();
+            } catch (IOException exception) {
+                throw new JSONException(exception);
+            }
+        }
+    }
+
+
+    /**
+     * Read more bytes from the stream or the file, keeping any bytes not
+     * yet decoded.
+     * @return true if more bytes were read.
+     */
+    private boolean refill() throws JSONException {
+        if (this.channel != null) {
+            return this.map();
+        }
+        if (this.stream == null) {
+            return false;
+        }
+        ByteBuffer in = this.bytes;
+        in.compact();
+        int read;
+        try {
+            read = this.stream.read(in.array(),
+                    in.arrayOffset() + in.position(), in.remaining());
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        }
+        if (read > 0) {
+            in.position(in.position() + read);
+        } else {
+            this.stream = null;
+        }
+        in.flip();
+        return in.hasRemaining();
+    }
+
+
     /**
      * Determine if the source string still contains characters that next()
      * can consume.
@@ -146,34 +553,27 @@ public class JSONTokener {
      * @return The next character, or 0 if past the end of the source string.
      */
     public char next() throws JSONException {
-        int c;
-        if (this.usePrevious) {
-        	this.usePrevious = false;
-            c = this.previous;
-        } else {
-	        try {
-	            c = this.reader.read();
-	        } catch (IOException exception) {
-	            throw new JSONException(exception);
-	        }
-
-	        if (c <= 0) { // End of stream
-	        	this.eof = true;
-	        	c = 0;
-	        }
+        this.usePrevious = false;
+        if (this.position < this.limit) {
+            char c = this.buffer[this.position];
+            this.position += 1;
+            if (c == 0) { // End of stream
+                this.eof = true;
+            }
+            return c;
+        }
+        if (this.position == this.limit && this.fill()) {
+            return this.next();
         }
-    	this.index += 1;
-    	if (this.previous == '\r') {
-    		this.line += 1;
-    		this.character = c == '\n' ? 0 : 1;
-    	} else if (c == '\n') {
-    		this.line += 1;
-    		this.character = 0;
-    	} else {
-    		this.character += 1;
-    	}
-    	this.previous = (char) c;
-        return this.previous;
+        this.eof = true;
+        this.countLines(this.limit);
+        if (this.returnPending) {
+            this.line += 1;
+            this.lineStart = this.offset + this.limit;
+            this.returnPending = false;
+        }
+        this.position = this.limit + 1;
+        return 0;
     }
 
 
@@ -228,10 +628,25 @@ public class JSONTokener {
      * @return  A character, or 0 if there are no more characters.
      */
     public char nextClean() throws JSONException {
+        this.usePrevious = false;
         for (;;) {
-            char c = this.next();
-            if (c == 0 || c > ' ') {
-                return c;
+            int p = this.position;
+            while (p < this.limit) {
+                char c = this.buffer[p];
+                p += 1;
+                if (c > ' ') {
+                    this.position = p;
+                    return c;
+                }
+                if (c == 0) {
+                    this.position = p;
+                    this.eof = true;
+                    return c;
+                }
+            }
+            this.position = p;
+            if (!this.fill()) {
+                return this.next();
             }
         }
     }
@@ -249,8 +664,53 @@ public class JSONTokener {
      * @throws JSONException Unterminated string.
      */
     public String nextString(char quote) throws JSONException {
+        return this.nextString(quote, false);
+    }
+
+
+    /**
+     * Return the characters up to the next close quote character, taking
+     * a string without escapes from the symbol table if it is a key.
+     * @param quote The quoting character.
+     * @param key   true if the string is the key of a JSONObject.
+     * @return      A String.
+     * @throws JSONException Unterminated string.
+     */
+    private String nextString(char quote, boolean key) throws JSONException {
         char c;
-        StringBuffer sb = new StringBuffer();
+
+// Most strings have no escapes. Find the closing quote and make the String
+// straight from the buffer, only falling back to a builder at a backslash.
+
+        this.usePrevious = false;
+        this.mark = this.position;
+        int p = this.position;
+        for (;;) {
+            if (p >= this.limit) {
+                this.position = p;
+                if (!this.fill()) {
+                    break;
+                }
+                p = this.position;
+            }
+            c = this.buffer[p];
+            if (c == quote) {
+                String string = key
+                    ? this.symbol(this.mark, p - this.mark)
+                    : new String(this.buffer, this.mark, p - this.mark);
+                this.position = p + 1;
+                this.mark = -1;
+                return string;
+            }
+            if (c == '\\' || c == '\n' || c == '\r' || c == 0) {
+                break;
+            }
+            p += 1;
+        }
+        StringBuilder sb = new StringBuilder(p - this.mark + 16);
+        sb.append(this.buffer, this.mark, p - this.mark);
+        this.position = p;
+        this.mark = -1;
         for (;;) {
             c = this.next();
             switch (c) {
@@ -295,6 +755,21 @@ public class JSONTokener {
                 }
                 sb.append(c);
             }
+
+// Copy the run of plain characters up to the next special one.
+
+            int start = this.position;
+            p = start;
+            while (p < this.limit) {
+                c = this.buffer[p];
+                if (c == quote || c == '\\' || c == '\n' || c == '\r' ||
+                        c == 0) {
+                    break;
+                }
+                p += 1;
+            }
+            sb.append(this.buffer, start, p - start);
+            this.position = p;
         }
     }
 
@@ -352,7 +827,6 @@ public class JSONTokener {
      */
     public Object nextValue() throws JSONException {
         char c = this.nextClean();
-        String string;
 
         switch (c) {
             case '"':
@@ -375,18 +849,464 @@ public class JSONTokener {
          * formatting character.
          */
 
-        StringBuffer sb = new StringBuffer();
-        while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
-            sb.append(c);
-            c = this.next();
+        if (c < ' ' || (c < 128 && DELIMITERS[c])) {
+            this.back();
+            throw this.syntaxError("Missing value");
+        }
+        this.mark = this.position - 1;
+        scan:
+        for (;;) {
+            while (this.position < this.limit) {
+                c = this.buffer[this.position];
+                if (c < ' ' || (c < 128 && DELIMITERS[c])) {
+                    break scan;
+                }
+                this.position += 1;
+            }
+            if (!this.fill()) {
+                break;
+            }
+        }
+        int end = this.position;
+        while (this.buffer[end - 1] == ' ') {
+            end -= 1;
+        }
+        Object value = literal(this.buffer, this.mark, end);
+        if (value == null) {
+            value = new String(this.buffer, this.mark, end - this.mark);
+        }
+        this.mark = -1;
+        return value;
+    }
+
+
+    /**
+     * Classify an unquoted token as true, false, null, or a number, reading
+     * it directly from a character array. This accepts the same forms as
+     * JSONObject.stringToValue, but it does not make intermediate strings
+     * and it does not use exceptions to reject tokens that are not numbers.
+     * @param chars The characters.
+     * @param start The index of the first character of the token.
+     * @param end   The index after the last character of the token.
+     * @return A Boolean, Double, Integer, Long, or JSONObject.NULL, or null
+     *  if the token should be taken as a string.
+     */
+    static Object literal(char[] chars, int start, int end) {
+        if (start >= end) {
+            return null;
+        }
+        switch (chars[start]) {
+        case 't':
+        case 'T':
+            return matches(chars, start, end, "true") ? Boolean.TRUE : null;
+        case 'f':
+        case 'F':
+            return matches(chars, start, end, "false") ? Boolean.FALSE : null;
+        case 'n':
+        case 'N':
+            return matches(chars, start, end, "null") ? JSONObject.NULL : null;
+        case '0': case '1': case '2': case '3': case '4':
+        case '5': case '6': case '7': case '8': case '9':
+        case '.':
+        case '-':
+        case '+':
+            break;
+        default:
+            return null;
+        }
+
+        /*
+         * As in stringToValue, a token containing a decimal point or an
+         * exponent is a double. Anything else must be an integer.
+         */
+
+        for (int i = start; i < end; i += 1) {
+            char c = chars[i];
+            if (c == '.' || c == 'e' || c == 'E') {
+                return decimal(chars, start, end);
+            }
+        }
+        return integer(chars, start, end);
+    }
+
+
+    /**
+     * Compare a token with a lower case ASCII word, ignoring case.
+     */
+    private static boolean matches(char[] chars, int start, int end,
+            String word) {
+        if (end - start != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i += 1) {
+            if ((chars[start + i] | 0x20) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Read an optionally signed run of decimal digits as an Integer if it
+     * fits, or as a Long. Small values come from the boxing caches.
+     * @return The number, or null if the token is not an integer or does
+     *  not fit in a long.
+     */
+    private static Object integer(char[] chars, int start, int end) {
+        int i = start;
+        boolean negative = chars[i] == '-';
+        if (negative || chars[i] == '+') {
+            i += 1;
+        }
+        if (i >= end) {
+            return null;
+        }
+
+        /*
+         * Accumulate negatively so that Long.MIN_VALUE can be represented.
+         */
+
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multmin = limit / 10;
+        long result = 0;
+        for (; i < end; i += 1) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9 || result < multmin) {
+                return null;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return null;
+            }
+            result -= digit;
+        }
+        if (!negative) {
+            result = -result;
+        }
+        if (result == (int) result) {
+            return Integer.valueOf((int) result);
+        }
+        return Long.valueOf(result);
+    }
+
+
+    /**
+     * Exact powers of ten that can be used to scale a mantissa of at most
+     * MAX_EXACT_DIGITS digits with a single correctly rounded operation.
+     */
+    static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static final int MAX_EXACT_DIGITS = 15;
+
+
+    /**
+     * Read a decimal number with an optional fraction, exponent, and
+     * float or double suffix. Numbers of up to fifteen significant digits
+     * with a small exponent are computed directly. Others are handed to
+     * Double.parseDouble, which will not throw because the syntax has
+     * already been checked. Like Double.valueOf, trailing whitespace is
+     * ignored.
+     * @return The Double, or null if the token is not a finite number.
+     */
+    private static Object decimal(char[] chars, int start, int end) {
+        while (chars[end - 1] <= ' ') {
+            end -= 1;
+        }
+        int i = start;
+        boolean negative = chars[i] == '-';
+        if (negative || chars[i] == '+') {
+            i += 1;
+        }
+        long mantissa = 0;
+        int significant = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean fraction = false;
+        for (; i < end; i += 1) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                digits += 1;
+                if (mantissa != 0 || c != '0') {
+                    significant += 1;
+                    if (significant <= MAX_EXACT_DIGITS) {
+                        mantissa = mantissa * 10 + (c - '0');
+                    }
+                }
+                if (fraction) {
+                    scale -= 1;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return null;
+        }
+        int exponent = 0;
+        if (i < end && (chars[i] == 'e' || chars[i] == 'E')) {
+            i += 1;
+            boolean negativeExponent = false;
+            if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+                negativeExponent = chars[i] == '-';
+                i += 1;
+            }
+            int first = i;
+            for (; i < end && chars[i] >= '0' && chars[i] <= '9'; i += 1) {
+                if (exponent < 100000) {
+                    exponent = exponent * 10 + (chars[i] - '0');
+                }
+            }
+            if (i == first) {
+                return null;
+            }
+            if (negativeExponent) {
+                exponent = -exponent;
+            }
+        }
+        if (i < end && (chars[i] == 'd' || chars[i] == 'D' ||
+                chars[i] == 'f' || chars[i] == 'F')) {
+            i += 1;
+        }
+        if (i != end) {
+            return null;
+        }
+        double d;
+        exponent += scale;
+        if (mantissa == 0) {
+            d = 0;
+        } else if (significant <= MAX_EXACT_DIGITS &&
+                exponent >= -22 && exponent <= 22) {
+            d = exponent < 0
+                ? mantissa / POWERS_OF_TEN[-exponent]
+                : mantissa * POWERS_OF_TEN[exponent];
+        } else {
+            d = Double.parseDouble(new String(chars, start, end - start));
+            if (Double.isInfinite(d)) {
+                return null;
+            }
+            return Double.valueOf(d);
+        }
+        return Double.valueOf(negative ? -d : d);
+    }
+
+
+    /**
+     * Get the next key of a JSONObject that is being parsed. Quoted keys
+     * without escapes come from the symbol table.
+     * @return The key.
+     * @throws JSONException If there is no key.
+     */
+    String nextKey() throws JSONException {
+        char c = this.nextClean();
+        if (c == '"' || c == '\'') {
+            return this.nextString(c, true);
         }
         this.back();
+        return this.nextValue().toString();
+    }
 
-        string = sb.toString().trim();
-        if (string.equals("")) {
-            throw this.syntaxError("Missing value");
+
+    /**
+     * Get the next value for a JSONObject or JSONArray that is being
+     * parsed. In lazy mode the value is skipped and a Deferred that can
+     * decode it later is returned instead.
+     * @throws JSONException If there is no value.
+     * @return An object.
+     */
+    Object nextMember() throws JSONException {
+        if (!this.lazy) {
+            return this.nextValue();
+        }
+        char c = this.nextClean();
+        int start = this.position - 1;
+        this.countLines(Math.min(this.position, this.limit));
+        int line = this.line;
+        long lineStart = this.lineStart;
+        if (c == '"' || c == '\'') {
+            this.skipString(c);
+        } else if (c == '{' || c == '[') {
+            int depth = 1;
+            boolean unquoted = false;
+            while (depth > 0) {
+                if (this.position >= this.limit) {
+                    throw this.syntaxError(c == '{'
+                        ? "A JSONObject text must end with '}'"
+                        : "Expected a ',' or ']'");
+                }
+                char d = this.buffer[this.position];
+                this.position += 1;
+
+                /*
+                 * A single quote only starts a string at the beginning of a
+                 * token. Within unquoted text it is an ordinary character.
+                 * The '>' of a '=>' separator does not begin a token.
+                 */
+
+                if (d < ' ' || (d < 128 && DELIMITERS[d])) {
+                    unquoted = false;
+                    if (d < ' ') {
+                        this.skipBreak(this.position - 1);
+                    } else if (d == '"') {
+                        this.skipString(d);
+                    } else if (d == '{' || d == '[') {
+                        depth += 1;
+                    } else if (d == '}' || d == ']') {
+                        depth -= 1;
+                    }
+                } else if (!unquoted) {
+                    if (d == '\'') {
+                        this.skipString(d);
+                    } else if (d != ' ' && !(d == '>' &&
+                            this.buffer[this.position - 2] == '=')) {
+                        unquoted = true;
+                    }
+                }
+            }
+        } else {
+            if (c < ' ' || (c < 128 && DELIMITERS[c])) {
+                this.back();
+                throw this.syntaxError("Missing value");
+            }
+            while (this.position < this.limit) {
+                c = this.buffer[this.position];
+                if (c < ' ' || (c < 128 && DELIMITERS[c])) {
+                    break;
+                }
+                this.position += 1;
+            }
+        }
+        if (this.position > this.lineScanned) {
+            this.countLine(this.lineScanned);
+            this.lineScanned = this.position;
+        }
+        return new Deferred(this.buffer, start, this.position, line,
+                lineStart);
+    }
+
+
+    /**
+     * Count a line break passed over while skipping a value in lazy mode,
+     * so that the skipped text is not scanned again for line breaks. The
+     * characters since the last one counted are not control characters,
+     * so only the first of them can end a line, after a '\r'.
+     * @param i The buffer index of a control character.
+     */
+    private void skipBreak(int i) {
+        if (i < this.lineScanned) {
+            return;
+        }
+        if (i > this.lineScanned) {
+            this.countLine(this.lineScanned);
         }
-        return JSONObject.stringToValue(string);
+        this.countLine(i);
+        this.lineScanned = i + 1;
+    }
+
+
+    /**
+     * Skip the rest of a quoted string in lazy mode. Escapes are skipped
+     * over but not checked.
+     * @param quote The quoting character.
+     * @throws JSONException Unterminated string.
+     */
+    private void skipString(char quote) throws JSONException {
+        while (this.position < this.limit) {
+            char c = this.buffer[this.position];
+            this.position += 1;
+            if (c == quote) {
+                return;
+            }
+            if (c == '\\') {
+                this.position += 1;
+                if (this.position <= this.limit &&
+                        this.buffer[this.position - 1] < ' ') {
+                    this.skipBreak(this.position - 1);
+                }
+            } else if (c == '\n' || c == '\r' || c == 0) {
+                break;
+            }
+        }
+        throw this.syntaxError("Unterminated string");
+    }
+
+
+    /**
+     * A value that was skipped by a lazy parse. It keeps the source shared
+     * by the whole parse, where the value starts and ends in it, and the
+     * line it starts on, so that errors found when it is decoded on demand
+     * point into the source.
+     */
+    static final class Deferred {
+        private final char[] source;
+        private final int start;
+        private final int end;
+        private final int line;
+        private final long lineStart;
+
+        Deferred(char[] source, int start, int end, int line,
+                long lineStart) {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+            this.line = line;
+            this.lineStart = lineStart;
+        }
+
+        /**
+         * Decode the value. Objects and arrays within it are lazy too.
+         * @return The value.
+         * @throws JSONException If the value is not valid.
+         */
+        Object decode() throws JSONException {
+            return new JSONTokener(this.source, true, this.start, this.end,
+                    this.line, this.lineStart).nextValue();
+        }
+    }
+
+
+    /**
+     * Get the string for a key from the symbol table, adding it if it is
+     * not there. The table is a small direct mapped cache, so a document
+     * with many distinct keys costs no more than one table, while keys
+     * that repeat from record to record are shared by all of them. Their
+     * hash codes are computed once, when they are added.
+     * @param start  The buffer index of the first character.
+     * @param length The number of characters.
+     * @return The key.
+     */
+    private String symbol(int start, int length) {
+        if (length > MAX_SYMBOL_LENGTH) {
+            return new String(this.buffer, start, length);
+        }
+        int hash = 0;
+        for (int i = start; i < start + length; i += 1) {
+            hash = 31 * hash + this.buffer[i];
+        }
+        if (this.symbols == null) {
+            this.symbols = new String[SYMBOL_TABLE_SIZE];
+        }
+        int slot = (hash ^ (hash >>> 12)) & (SYMBOL_TABLE_SIZE - 1);
+        String symbol = this.symbols[slot];
+        if (symbol != null && symbol.hashCode() == hash &&
+                symbol.length() == length) {
+            int i = 0;
+            while (i < length && symbol.charAt(i) == this.buffer[start + i]) {
+                i += 1;
+            }
+            if (i == length) {
+                return symbol;
+            }
+        }
+        symbol = new String(this.buffer, start, length);
+        symbol.hashCode();
+        this.symbols[slot] = symbol;
+        return symbol;
     }
 
 
@@ -399,25 +1319,17 @@ public class JSONTokener {
      */
     public char skipTo(char to) throws JSONException {
         char c;
-        try {
-            int startIndex = this.index;
-            int startCharacter = this.character;
-            int startLine = this.line;
-            this.reader.mark(Integer.MAX_VALUE);
-            do {
-                c = this.next();
-                if (c == 0) {
-                    this.reader.reset();
-                    this.index = startIndex;
-                    this.character = startCharacter;
-                    this.line = startLine;
-                    return c;
-                }
-            } while (c != to);
-        } catch (IOException exc) {
-            throw new JSONException(exc);
-        }
-
+        this.mark = this.position;
+        do {
+            c = this.next();
+            if (c == 0) {
+                this.position = this.mark;
+                this.mark = -1;
+                this.eof = false;
+                return c;
+            }
+        } while (c != to);
+        this.mark = -1;
         this.back();
         return c;
     }
@@ -435,12 +1347,17 @@ public class JSONTokener {
 
 
     /**
-     * Make a printable string of this JSONTokener.
+     * Make a printable string of this JSONTokener. On the first line the
+     * character is one past the last character read, and on later lines it
+     * is the last character read, counting from 1, as it always has been.
      *
      * @return " at {index} [character {character} line {line}]"
      */
     public String toString() {
-        return " at " + this.index + " [character " + this.character + " line " +
-        	this.line + "]";
+        int read = this.usePrevious ? this.position + 1 : this.position;
+        this.countLines(Math.min(read, this.limit));
+        long index = this.offset + this.position;
+        return " at " + index + " [character " + (index - this.lineStart) +
+        	" line " + this.line + "]";
     }
 }
\ No newline at end of file
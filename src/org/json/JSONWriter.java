@@ -2,6 +2,7 @@ package org.json;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.Arrays;
 
 /*
 Copyright (c) 2006 JSON.org
@@ -76,15 +77,29 @@ public class JSONWriter {
     protected char mode;
 
     /**
-     * The object/array stack.
+     * The keys written so far in each object on the stack, by level. A
+     * level's set is cleared and reused by the next object at that level.
+     * No sets are made when keys are not checked.
      */
-    private final JSONObject stack[];
+    private KeySet keys[];
+
+    /**
+     * The scope stack. Values:
+     * 'a' (array),
+     * 'k' (object).
+     */
+    private char scopes[];
 
     /**
      * The stack top index. A value of 0 indicates that the stack is empty.
      */
     private int top;
 
+    /**
+     * Whether keys are checked for duplicates.
+     */
+    private final boolean unique;
+
     /**
      * The writer that will receive the output.
      */
@@ -94,10 +109,22 @@ public class JSONWriter {
      * Make a fresh JSONWriter. It can be used to build one JSON text.
      */
     public JSONWriter(Writer w) {
+        this(w, true);
+    }
+
+    /**
+     * Make a fresh JSONWriter. It can be used to build one JSON text.
+     * @param w The writer that will receive the output.
+     * @param unique Whether keys are checked for duplicates. A writer
+     *  that does not check them keeps no record of the keys it writes.
+     */
+    public JSONWriter(Writer w, boolean unique) {
         this.comma = false;
+        this.keys = new KeySet[8];
         this.mode = 'i';
-        this.stack = new JSONObject[maxdepth];
+        this.scopes = new char[8];
         this.top = 0;
+        this.unique = unique;
         this.writer = w;
     }
 
@@ -140,7 +167,7 @@ public class JSONWriter {
      */
     public JSONWriter array() throws JSONException {
         if (this.mode == 'i' || this.mode == 'o' || this.mode == 'a') {
-            this.push(null);
+            this.push('a');
             this.append("[");
             this.comma = false;
             return this;
@@ -205,11 +232,14 @@ public class JSONWriter {
         }
         if (this.mode == 'k') {
             try {
-                this.stack[this.top - 1].putOnce(string, Boolean.TRUE);
+                if (this.unique && !this.keys[this.top - 1].add(string)) {
+                    throw new JSONException("Duplicate key \"" + string +
+                            "\"");
+                }
                 if (this.comma) {
                     this.writer.write(',');
                 }
-                this.writer.write(JSONObject.quote(string));
+                JSONObject.quote(string, this.writer);
                 this.writer.write(':');
                 this.comma = false;
                 this.mode = 'o';
@@ -237,7 +267,7 @@ public class JSONWriter {
         }
         if (this.mode == 'o' || this.mode == 'a') {
             this.append("{");
-            this.push(new JSONObject());
+            this.push('k');
             this.comma = false;
             return this;
         }
@@ -255,29 +285,42 @@ public class JSONWriter {
         if (this.top <= 0) {
             throw new JSONException("Nesting error.");
         }
-        char m = this.stack[this.top - 1] == null ? 'a' : 'k';
-        if (m != c) {
+        if (this.scopes[this.top - 1] != c) {
             throw new JSONException("Nesting error.");
         }
         this.top -= 1;
         this.mode = this.top == 0
             ? 'd'
-            : this.stack[this.top - 1] == null
-            ? 'a'
-            : 'k';
+            : this.scopes[this.top - 1];
     }
 
     /**
-     * Push an array or object scope.
+     * Push an array or object scope. An object reuses the key set left by
+     * the last object at the same level.
      * @param c The scope to open.
      * @throws JSONException If nesting is too deep.
      */
-    private void push(JSONObject jo) throws JSONException {
+    private void push(char c) throws JSONException {
         if (this.top >= maxdepth) {
             throw new JSONException("Nesting too deep.");
         }
-        this.stack[this.top] = jo;
-        this.mode = jo == null ? 'a' : 'k';
+        if (this.top == this.scopes.length) {
+            char[] scopes = new char[this.top * 2];
+            System.arraycopy(this.scopes, 0, scopes, 0, this.scopes.length);
+            this.scopes = scopes;
+            KeySet[] keys = new KeySet[this.top * 2];
+            System.arraycopy(this.keys, 0, keys, 0, this.keys.length);
+            this.keys = keys;
+        }
+        if (c == 'k' && this.unique) {
+            if (this.keys[this.top] == null) {
+                this.keys[this.top] = new KeySet();
+            } else {
+                this.keys[this.top].clear();
+            }
+        }
+        this.scopes[this.top] = c;
+        this.mode = c;
         this.top += 1;
     }
 
@@ -324,4 +367,57 @@ public class JSONWriter {
     public JSONWriter value(Object object) throws JSONException {
         return this.append(JSONObject.valueToString(object));
     }
+
+
+    /**
+     * A set of the keys written in an object, kept in an open addressed
+     * table that is cleared rather than thrown away when the object ends.
+     */
+    private static final class KeySet {
+        private int size;
+        private String[] table = new String[16];
+
+        /**
+         * Add a key.
+         * @return false if the key was already in the set.
+         */
+        boolean add(String key) {
+            int mask = this.table.length - 1;
+            int h = key.hashCode();
+            int i = (h ^ (h >>> 16)) & mask;
+            while (this.table[i] != null) {
+                if (this.table[i].equals(key)) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            this.table[i] = key;
+            this.size += 1;
+            if (this.size * 2 > this.table.length) {
+                this.rehash();
+            }
+            return true;
+        }
+
+        /**
+         * Remove every key.
+         */
+        void clear() {
+            if (this.size > 0) {
+                Arrays.fill(this.table, null);
+                this.size = 0;
+            }
+        }
+
+        private void rehash() {
+            String[] old = this.table;
+            this.table = new String[old.length * 2];
+            this.size = 0;
+            for (int i = 0; i < old.length; i += 1) {
+                if (old[i] != null) {
+                    this.add(old[i]);
+                }
+            }
+        }
+    }
 }